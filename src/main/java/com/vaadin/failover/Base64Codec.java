@@ -0,0 +1,82 @@
+package com.vaadin.failover;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A minimal Base64 codec; <code>java.util.Base64</code> is not available on Java 7.
+ * @author mavi
+ */
+final class Base64Codec {
+    private static final char[] URL_SAFE_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private Base64Codec() {
+    }
+
+    /**
+     * Encodes given bytes with the URL-safe alphabet, without padding.
+     * @param bytes the bytes to encode, not null.
+     * @return the encoded string, not null.
+     */
+    static String encodeUrlSafe(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder((bytes.length * 4 + 2) / 3);
+        for (int i = 0; i < bytes.length; i += 3) {
+            final int remaining = bytes.length - i;
+            final int b = ((bytes[i] & 0xff) << 16) | (remaining > 1 ? (bytes[i + 1] & 0xff) << 8 : 0) | (remaining > 2 ? bytes[i + 2] & 0xff : 0);
+            sb.append(URL_SAFE_ALPHABET[(b >> 18) & 0x3f]).append(URL_SAFE_ALPHABET[(b >> 12) & 0x3f]);
+            if (remaining > 1) {
+                sb.append(URL_SAFE_ALPHABET[(b >> 6) & 0x3f]);
+            }
+            if (remaining > 2) {
+                sb.append(URL_SAFE_ALPHABET[b & 0x3f]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes a string encoded either with the standard or with the URL-safe alphabet, with or without padding.
+     * @param string the encoded string, not null.
+     * @return the decoded bytes, not null.
+     * @throws IllegalArgumentException if the string is not valid Base64.
+     */
+    static byte[] decode(String string) {
+        int length = string.length();
+        while (length > 0 && string.charAt(length - 1) == '=') {
+            length--;
+        }
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Parameter string: invalid length " + string.length());
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(length * 3 / 4);
+        int buffer = 0;
+        int bits = 0;
+        for (int i = 0; i < length; i++) {
+            buffer = (buffer << 6) | valueOf(string.charAt(i));
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out.write((buffer >> bits) & 0xff);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static int valueOf(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        }
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+        if (c == '+' || c == '-') {
+            return 62;
+        }
+        if (c == '/' || c == '_') {
+            return 63;
+        }
+        throw new IllegalArgumentException("Parameter string: invalid character " + c);
+    }
+}
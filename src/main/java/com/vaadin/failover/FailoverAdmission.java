@@ -0,0 +1,167 @@
+package com.vaadin.failover;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate and the concurrency of new session creation, so that a spare server which is already at capacity redirects the
+ * fail-over traffic elsewhere instead of accepting every browser. Used by {@link FailoverAdmissionFilter}.
+ * <p>
+ * The rate is limited by a lock-free token bucket (implemented as the generic cell rate algorithm, with the whole state in a single
+ * {@link AtomicLong}): on average {@link #getSessionsPerSecond()} new sessions are admitted, with bursts of up to {@link #getBurst()}.
+ * Only the requests which actually create a session are charged (see {@link #onSessionCreated()}), so that the session-less
+ * infrastructure requests (telemetry beacons, load and health queries) do not take the tokens from the users.
+ * Additionally, at most {@link #getMaxConcurrent()} session-less requests may be processed at the same time; this also bounds
+ * how far the concurrently admitted requests may overshoot the burst.
+ * <p>
+ * There is one instance per web application, see {@link #get()}. Unlimited by default.
+ * @author mavi
+ */
+public final class FailoverAdmission {
+    private static final FailoverAdmission INSTANCE = new FailoverAdmission();
+
+    /**
+     * Returns the admission controller.
+     * @return the instance, not null.
+     */
+    public static FailoverAdmission get() {
+        return INSTANCE;
+    }
+
+    private volatile int sessionsPerSecond = 0;
+    private volatile int burst = 1;
+    private volatile int maxConcurrent = 0;
+    /**
+     * The emission interval: one token per this many nanoseconds. 0 if the rate is unlimited.
+     */
+    private volatile long intervalNanos = 0;
+    /**
+     * The theoretical arrival time of the next request, in {@link System#nanoTime()}.
+     */
+    private final AtomicLong theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    FailoverAdmission() {
+    }
+
+    /**
+     * Configures the limits.
+     * @param sessionsPerSecond the sustained rate of new sessions per second; 0 means unlimited.
+     * @param burst how many new sessions may be admitted at once when the bucket is full. At least 1.
+     * @param maxConcurrent how many requests creating a new session may be processed concurrently; 0 means unlimited.
+     */
+    public void configure(int sessionsPerSecond, int burst, int maxConcurrent) {
+        if (sessionsPerSecond < 0) {
+            throw new IllegalArgumentException("Parameter sessionsPerSecond: invalid value " + sessionsPerSecond + ": must be 0 or greater");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Parameter burst: invalid value " + burst + ": must be 1 or greater");
+        }
+        if (maxConcurrent < 0) {
+            throw new IllegalArgumentException("Parameter maxConcurrent: invalid value " + maxConcurrent + ": must be 0 or greater");
+        }
+        this.sessionsPerSecond = sessionsPerSecond;
+        this.burst = burst;
+        this.maxConcurrent = maxConcurrent;
+        this.intervalNanos = sessionsPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / sessionsPerSecond;
+    }
+
+    public int getSessionsPerSecond() {
+        return sessionsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * @return the number of requests rejected so far.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Tries to admit a request which may create a new session. Nothing is charged yet: if the request does create a session,
+     * the caller must call {@link #onSessionCreated()}. If admitted, the caller must call {@link #release()} once the request
+     * has been processed.
+     * @return true if admitted, false if the server is over budget and the request should be rejected.
+     */
+    public boolean tryAcquire() {
+        final int max = maxConcurrent;
+        if (max > 0 && inFlight.incrementAndGet() > max) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        if (max <= 0) {
+            inFlight.incrementAndGet();
+        }
+        if (!hasToken(System.nanoTime())) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Charges a request admitted by {@link #tryAcquire()} which has created a new session. Always succeeds; when the concurrently
+     * admitted requests overshoot the burst, the following requests are rejected for a correspondingly longer time.
+     */
+    public void onSessionCreated() {
+        onSessionCreated(System.nanoTime());
+    }
+
+    void onSessionCreated(long now) {
+        final long interval = intervalNanos;
+        if (interval == 0) {
+            return;
+        }
+        while (true) {
+            final long current = theoreticalArrivalTime.get();
+            if (theoreticalArrivalTime.compareAndSet(current, Math.max(current, now) + interval)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Marks a request admitted by {@link #tryAcquire()} as finished.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Checks, without consuming anything, whether a new session would be admitted right now. Used to answer the fail-over probes
+     * cheaply: there is no point in attracting a browser which would be rejected anyway.
+     * @return true if the server has the capacity for a new session.
+     */
+    public boolean hasCapacity() {
+        final int max = maxConcurrent;
+        if (max > 0 && inFlight.get() >= max) {
+            return false;
+        }
+        return hasToken(System.nanoTime());
+    }
+
+    /**
+     * Checks whether the bucket holds a token at given time, without taking it.
+     * @param now the current {@link System#nanoTime()}.
+     */
+    boolean hasToken(long now) {
+        final long interval = intervalNanos;
+        if (interval == 0) {
+            return true;
+        }
+        final long tat = Math.max(theoreticalArrivalTime.get(), now);
+        return tat + interval - now <= burst * interval;
+    }
+}
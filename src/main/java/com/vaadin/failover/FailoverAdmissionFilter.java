@@ -0,0 +1,96 @@
+package com.vaadin.failover;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Admission control for the fail-over arrivals, see {@link FailoverAdmission}. Map this filter in front of the Vaadin servlet and the
+ * ping path. When the server is over budget:
+ * <ul>
+ *     <li>requests without a valid session (which may create a new session) are rejected with
+ *     <code>503 Service Unavailable</code>, before any session or UI is created;</li>
+ *     <li>the fail-over probes (requests to <code>pingPath</code>) are rejected with <code>503</code> as well, so that the fail-over client
+ *     treats this server as unavailable and moves on to the next URL.</li>
+ * </ul>
+ * Requests of existing sessions and static resources under <code>/VAADIN/</code> always pass. Only the requests which actually create
+ * a session consume the budget; the session-less requests such as the telemetry beacons only need the budget to be available.
+ * <p>
+ * Init parameters:
+ * <ul>
+ *     <li><code>sessionsPerSecond</code> - the sustained rate of new sessions; 0 (the default) means unlimited</li>
+ *     <li><code>burst</code> - the number of new sessions admitted at once; defaults to 1</li>
+ *     <li><code>maxConcurrent</code> - the max number of concurrently processed new-session requests; 0 (the default) means unlimited</li>
+ *     <li><code>pingPath</code> - the ping path relative to the context root, e.g. <code>/VAADIN/themes/valo/img/app-icon.png</code></li>
+ * </ul>
+ * @author mavi
+ */
+public class FailoverAdmissionFilter implements Filter {
+    private String pingPath = null;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        FailoverAdmission.get().configure(getInt(filterConfig, "sessionsPerSecond", 0), getInt(filterConfig, "burst", 1),
+                getInt(filterConfig, "maxConcurrent", 0));
+        pingPath = filterConfig.getInitParameter("pingPath");
+    }
+
+    private static int getInt(FilterConfig config, String name, int defaultValue) throws ServletException {
+        final String value = config.getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Init parameter " + name + ": invalid value " + value + ": must be a number", e);
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final HttpServletRequest req = (HttpServletRequest) request;
+        final String path = req.getRequestURI().substring(req.getContextPath().length());
+        if (pingPath != null && path.equals(pingPath)) {
+            if (!FailoverAdmission.get().hasCapacity()) {
+                reject((HttpServletResponse) response);
+                return;
+            }
+            chain.doFilter(request, response);
+            return;
+        }
+        if (path.startsWith("/VAADIN/") || req.isRequestedSessionIdValid()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (!FailoverAdmission.get().tryAcquire()) {
+            reject((HttpServletResponse) response);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (req.getSession(false) != null) {
+                // the request had no valid session before, therefore it has created one
+                FailoverAdmission.get().onSessionCreated();
+            }
+            FailoverAdmission.get().release();
+        }
+    }
+
+    private static void reject(HttpServletResponse response) throws IOException {
+        response.setHeader("Retry-After", "10");
+        response.setHeader("Cache-Control", "no-cache");
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,652 @@
+package com.vaadin.failover;
+
+import com.vaadin.failover.client.FailoverConfig;
+import com.vaadin.failover.client.FailoverEndpoint;
+import com.vaadin.failover.client.LogLevel;
+import com.vaadin.server.BootstrapFragmentResponse;
+import com.vaadin.server.BootstrapListener;
+import com.vaadin.server.BootstrapPageResponse;
+import com.vaadin.server.SessionInitEvent;
+import com.vaadin.server.SessionInitListener;
+import com.vaadin.server.VaadinService;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Embeds the fail-over configuration directly into the bootstrap page. The client-side is then able to fail over even in case when
+ * the server dies before the first UIDL response (and thus the {@link FailoverReconnectExtension} state) reaches the browser.
+ * Also, the URL list no longer needs to be sent in every UI's state - just add the {@link FailoverReconnectExtension}
+ * without calling {@link FailoverReconnectExtension#setUrls(List)}.
+ * <p>
+ * To use, configure the listener and register it in your servlet's <code>servletInitialized()</code>:
+ * <pre>
+ * final FailoverBootstrapListener listener = new FailoverBootstrapListener();
+ * listener.setUrls(Arrays.asList("http://server1:8080", "http://server2:8080"));
+ * listener.setPingImagePath("/VAADIN/themes/valo/img/app-icon.png");
+ * listener.register(getService());
+ * </pre>
+ * The configuration is a small versioned JSON object (see {@link FailoverConfig#BOOTSTRAP_CONFIG_VERSION}) which also carries
+ * the hash of its contents; it is computed only once and then reused for all bootstrap pages.
+ * <p>
+ * With {@link #setInitialNodeSelection(boolean)} enabled, the selection runs in the bootstrap page itself: the
+ * <code>vaadin.initApplication()</code> call is deferred until the nodes have been probed, and is not made at all when the browser
+ * moves to another node. The node the browser leaves thus never creates the UI; it still creates the session which serves the
+ * bootstrap page.
+ * @author mavi
+ */
+public class FailoverBootstrapListener implements BootstrapListener {
+    private final List<FailoverEndpoint> endpoints = new ArrayList<>();
+    private boolean randomRobin = true;
+    private boolean infinite = true;
+    private int pingMillis = 10000;
+    private String pingImagePath = null;
+    private String telemetryPath = null;
+    private LogLevel logLevel = LogLevel.INFO;
+    private boolean logToConsole = true;
+    private boolean initialNodeSelection = false;
+    private int initialNodeSelectionBudgetMillis = 1000;
+    private String loadPath = null;
+    private int healthPort = 0;
+    private boolean hotStandby = false;
+    private int hotStandbyKeepaliveMillis = 120000;
+    private boolean inPlaceReattach = false;
+    private boolean workerProbing = false;
+
+    /**
+     * Defines <code>selectInitialNode(init)</code> on the bootstrap config, which either calls <code>init</code> (the deferred
+     * <code>vaadin.initApplication()</code>) or moves the browser to a better node. Mirrors the client-side
+     * <code>InitialNodeSelector</code>, which only runs when this script could not (e.g. the browser lacks <code>fetch()</code>);
+     * the nodes are probed via <code>fetch()</code>, in the no-cors mode unless the load path is set.
+     */
+    private static final String INITIAL_NODE_SELECTOR = "(function (cfg) {\n"
+            + "  var KEY = 'vaadinFailover.initialNode', SELECTED = 'failover-selected', TTL = 24 * 60 * 60 * 1000, RATIO = 0.6;\n"
+            + "  function store(url) {\n"
+            + "    try { localStorage.setItem(KEY, JSON.stringify({url: url, at: Date.now()})); } catch (e) { }\n"
+            + "  }\n"
+            + "  function stored() {\n"
+            + "    try {\n"
+            + "      var choice = JSON.parse(localStorage.getItem(KEY));\n"
+            + "      return choice && typeof choice.url === 'string' && typeof choice.at === 'number' && Date.now() - choice.at <= TTL ? choice.url : null;\n"
+            + "    } catch (e) {\n"
+            + "      return null;\n"
+            + "    }\n"
+            + "  }\n"
+            + "  function probeUrl(url) {\n"
+            + "    if (!cfg.healthPort) { return url; }\n"
+            + "    var u = new URL(url, location.href);\n"
+            + "    return u.protocol + '//' + u.hostname + ':' + cfg.healthPort;\n"
+            + "  }\n"
+            + "  function moveTo(url) {\n"
+            + "    location.replace(url + (url.indexOf('?') >= 0 ? '&' : '?') + SELECTED);\n"
+            + "  }\n"
+            + "  cfg.selectInitialNode = function (init) {\n"
+            + "    var page, current = null, longest = -1, probes = [], decided = false, timer, i;\n"
+            + "    try {\n"
+            + "      page = new URL(location.href);\n"
+            + "      for (i = 0; i < cfg.endpoints.length; i++) {\n"
+            + "        var u = new URL(cfg.endpoints[i].url, location.href), path = u.pathname.replace(/\\/$/, '');\n"
+            + "        if (u.origin === page.origin && (page.pathname === path || page.pathname.indexOf(path + '/') === 0) && path.length > longest) {\n"
+            + "          current = cfg.endpoints[i].url;\n"
+            + "          longest = path.length;\n"
+            + "        }\n"
+            + "      }\n"
+            + "    } catch (e) {\n"
+            + "      current = null;\n"
+            + "    }\n"
+            + "    if (current === null || !window.fetch) {\n"
+            + "      init();\n"
+            + "      return;\n"
+            + "    }\n"
+            + "    cfg.initialNodeSelected = true;\n"
+            + "    if (page.searchParams.has(SELECTED)) {\n"
+            + "      store(current);\n"
+            + "      init();\n"
+            + "      return;\n"
+            + "    }\n"
+            + "    var choice = stored();\n"
+            + "    for (i = 0; i < cfg.endpoints.length; i++) {\n"
+            + "      if (cfg.endpoints[i].url === choice) {\n"
+            + "        if (choice === current) { init(); } else { moveTo(choice); }\n"
+            + "        return;\n"
+            + "      }\n"
+            + "    }\n"
+            + "    function decide() {\n"
+            + "      if (decided) { return; }\n"
+            + "      decided = true;\n"
+            + "      clearTimeout(timer);\n"
+            + "      var maxLoad = 0, best = null, j;\n"
+            + "      for (j = 0; j < probes.length; j++) { maxLoad = Math.max(maxLoad, probes[j].load); }\n"
+            + "      function score(p) { var rtt = p.rtt + 1; return maxLoad <= 0 || p.load < 0 ? rtt : rtt * (1 + p.load / maxLoad); }\n"
+            + "      for (j = 0; j < probes.length; j++) {\n"
+            + "        if (probes[j].rtt >= 0 && (best === null || score(probes[j]) < score(best))) { best = probes[j]; }\n"
+            + "      }\n"
+            + "      if (best !== null && (probes[0].rtt < 0 || score(best) <= score(probes[0]) * RATIO)) {\n"
+            + "        store(best.url);\n"
+            + "        if (best !== probes[0]) {\n"
+            + "          moveTo(best.url);\n"
+            + "          return;\n"
+            + "        }\n"
+            + "      } else if (best !== null) {\n"
+            + "        store(current);\n"
+            + "      }\n"
+            + "      init();\n"
+            + "    }\n"
+            + "    function done(p, alive) {\n"
+            + "      if (decided || p.done) { return; }\n"
+            + "      p.done = true;\n"
+            + "      if (alive) { p.rtt = Date.now() - p.at; }\n"
+            + "      for (var j = 0; j < probes.length; j++) { if (!probes[j].done) { return; } }\n"
+            + "      decide();\n"
+            + "    }\n"
+            + "    function probe(p) {\n"
+            + "      var request = cfg.loadPath ? fetch(p.url + cfg.loadPath, {mode: 'cors', cache: 'no-store', credentials: 'omit'}).then(function (r) {\n"
+            + "        if (!r.ok) { done(p, false); return; }\n"
+            + "        return r.text().then(function (text) {\n"
+            + "          var load = parseInt(text, 10);\n"
+            + "          if (!isNaN(load)) { p.load = load; }\n"
+            + "          done(p, true);\n"
+            + "        });\n"
+            + "      }) : fetch(probeUrl(p.url) + p.path, {mode: 'no-cors', cache: 'no-store', credentials: 'omit'}).then(function (r) {\n"
+            // an opaque (no-cors) response hides the status; 503 means that the node refuses new traffic.
+            + "        done(p, r.type === 'opaque' || (r.status !== 0 && r.status !== 503));\n"
+            + "      });\n"
+            + "      request.then(null, function () { done(p, false); });\n"
+            + "    }\n"
+            + "    for (i = 0; i < cfg.endpoints.length; i++) {\n"
+            + "      var endpoint = cfg.endpoints[i];\n"
+            + "      var p = {url: endpoint.url, path: endpoint.probePath || cfg.pingImagePath || '', at: Date.now(), rtt: -1, load: -1, done: false};\n"
+            + "      if (endpoint.url === current) { probes.unshift(p); } else { probes.push(p); }\n"
+            + "    }\n"
+            + "    timer = setTimeout(decide, cfg.initialNodeSelectionBudgetMillis);\n"
+            + "    for (i = 0; i < probes.length; i++) { probe(probes[i]); }\n"
+            + "  };\n"
+            + "})(window." + FailoverConfig.BOOTSTRAP_CONFIG_VARIABLE + ");";
+
+    /**
+     * The script to embed into every bootstrap page, together with the hash of the configuration; immutable, so that a reader
+     * always sees a matching pair.
+     */
+    private static final class Rendered {
+        final String script;
+        final String configHash;
+        /**
+         * True if the <code>vaadin.initApplication()</code> call is to be deferred until the initial node is selected.
+         */
+        final boolean initialNodeSelection;
+
+        Rendered(String script, String configHash, boolean initialNodeSelection) {
+            this.script = script;
+            this.configHash = configHash;
+            this.initialNodeSelection = initialNodeSelection;
+        }
+    }
+
+    /**
+     * Computed lazily by {@link #getRendered()}, cleared by every setter.
+     */
+    private transient volatile Rendered rendered = null;
+
+    /**
+     * Registers this listener to all sessions created by given service.
+     * @param service the service, not null.
+     */
+    public void register(VaadinService service) {
+        service.addSessionInitListener(new SessionInitListener() {
+            @Override
+            public void sessionInit(SessionInitEvent event) {
+                event.getSession().addBootstrapListener(FailoverBootstrapListener.this);
+            }
+        });
+    }
+
+    /**
+     * Sets the list of URLs to reconnect to, see {@link FailoverReconnectExtension#setUrls(List)} for details.
+     * @param urls the list of URLs, not null, may be empty. All URLs must start with http:// or https://
+     */
+    public void setUrls(List<String> urls) {
+        setEndpoints(FailoverReconnectExtension.toEndpoints(urls));
+    }
+
+    /**
+     * Returns the current list of URLs we will reconnect to.
+     * @return the list of URLs, not null, initially empty.
+     */
+    public List<String> getUrls() {
+        final List<String> urls = new ArrayList<>();
+        for (FailoverEndpoint endpoint : endpoints) {
+            urls.add(endpoint.url);
+        }
+        return urls;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setEndpoints(List)}. The {@link FailoverEndpoint#healthy} flag is not embedded into the
+     * bootstrap page since it changes over time.
+     * @param endpoints the nodes, not null, may be empty. Copied - further changes to the endpoints are not reflected.
+     */
+    public void setEndpoints(List<FailoverEndpoint> endpoints) {
+        final List<FailoverEndpoint> copy = FailoverReconnectExtension.checkEndpoints(endpoints);
+        this.endpoints.clear();
+        this.endpoints.addAll(copy);
+        FailoverNodeHealth.get().addNodes(copy);
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#getEndpoints()}.
+     * @return copies of the nodes, not null, initially empty.
+     */
+    public List<FailoverEndpoint> getEndpoints() {
+        final List<FailoverEndpoint> result = new ArrayList<>();
+        for (FailoverEndpoint endpoint : endpoints) {
+            result.add(new FailoverEndpoint(endpoint));
+        }
+        return result;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#isRandomRobin()}.
+     * @return true if the reconnect should follow the random robin algorithm, false if round robin
+     */
+    public boolean isRandomRobin() {
+        return randomRobin;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setRandomRobin(boolean)}.
+     * @param randomRobin if the reconnect should follow the random robin algorithm, false if round robin
+     */
+    public void setRandomRobin(boolean randomRobin) {
+        this.randomRobin = randomRobin;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#isInfinite()}.
+     * @return true if the reconnect process should be repeated indefinitely, false if not.
+     */
+    public boolean isInfinite() {
+        return infinite;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setInfinite(boolean)}.
+     * @param infinite true if the reconnect process should be repeated indefinitely, false if not.
+     */
+    public void setInfinite(boolean infinite) {
+        this.infinite = infinite;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#getPingMillis()}.
+     * @return The value in milliseconds; the default is 10 seconds.
+     */
+    public int getPingMillis() {
+        return pingMillis;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setPingMillis(int)}.
+     * @param pingMillis The value in milliseconds; the default is 10 seconds. Must not be negative.
+     */
+    public void setPingMillis(int pingMillis) {
+        if (pingMillis < 0) {
+            throw new IllegalArgumentException("Parameter pingMillis: invalid value " + pingMillis + ": must be 0 or greater");
+        }
+        this.pingMillis = pingMillis;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#getPingImagePath()}.
+     * @return path to image, null by default.
+     */
+    public String getPingImagePath() {
+        return pingImagePath;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setPingImagePath(String)}.
+     * @param pingImagePath path to image, null by default.
+     */
+    public void setPingImagePath(String pingImagePath) {
+        this.pingImagePath = pingImagePath;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#getTelemetryPath()}.
+     * @return the path, null by default which disables the telemetry.
+     */
+    public String getTelemetryPath() {
+        return telemetryPath;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setTelemetryPath(String)}.
+     * @param telemetryPath the path, null by default which disables the telemetry.
+     */
+    public void setTelemetryPath(String telemetryPath) {
+        this.telemetryPath = telemetryPath;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#getLogLevel()}.
+     * @return the log level, not null.
+     */
+    public LogLevel getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setLogLevel(LogLevel)}.
+     * @param logLevel the log level, not null.
+     */
+    public void setLogLevel(LogLevel logLevel) {
+        this.logLevel = Objects.requireNonNull(logLevel);
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#isLogToConsole()}.
+     * @return true if logging to the browser console.
+     */
+    public boolean isLogToConsole() {
+        return logToConsole;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setLogToConsole(boolean)}.
+     * @param logToConsole true if logging to the browser console.
+     */
+    public void setLogToConsole(boolean logToConsole) {
+        this.logToConsole = logToConsole;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#isInitialNodeSelection()}.
+     * @return true if the initial node selection is enabled.
+     */
+    public boolean isInitialNodeSelection() {
+        return initialNodeSelection;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setInitialNodeSelection(boolean)}.
+     * @param initialNodeSelection true to enable the initial node selection.
+     */
+    public void setInitialNodeSelection(boolean initialNodeSelection) {
+        this.initialNodeSelection = initialNodeSelection;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#getInitialNodeSelectionBudgetMillis()}.
+     * @return the budget in milliseconds.
+     */
+    public int getInitialNodeSelectionBudgetMillis() {
+        return initialNodeSelectionBudgetMillis;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setInitialNodeSelectionBudgetMillis(int)}.
+     * @param initialNodeSelectionBudgetMillis the budget in milliseconds, must be greater than 0.
+     */
+    public void setInitialNodeSelectionBudgetMillis(int initialNodeSelectionBudgetMillis) {
+        if (initialNodeSelectionBudgetMillis <= 0) {
+            throw new IllegalArgumentException("Parameter initialNodeSelectionBudgetMillis: invalid value " + initialNodeSelectionBudgetMillis + ": must be greater than 0");
+        }
+        this.initialNodeSelectionBudgetMillis = initialNodeSelectionBudgetMillis;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#getLoadPath()}.
+     * @return the path, null by default.
+     */
+    public String getLoadPath() {
+        return loadPath;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setLoadPath(String)}.
+     * @param loadPath the path, null by default.
+     */
+    public void setLoadPath(String loadPath) {
+        this.loadPath = loadPath;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#getHealthPort()}.
+     * @return the port, 0 by default.
+     */
+    public int getHealthPort() {
+        return healthPort;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setHealthPort(int)}.
+     * @param healthPort the port, 0..65535; 0 by default.
+     */
+    public void setHealthPort(int healthPort) {
+        if (healthPort < 0 || healthPort > 65535) {
+            throw new IllegalArgumentException("Parameter healthPort: invalid value " + healthPort + ": must be 0..65535");
+        }
+        this.healthPort = healthPort;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#isHotStandby()}.
+     * @return true if enabled, false by default.
+     */
+    public boolean isHotStandby() {
+        return hotStandby;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setHotStandby(boolean)}.
+     * @param hotStandby true to enable, false by default.
+     */
+    public void setHotStandby(boolean hotStandby) {
+        this.hotStandby = hotStandby;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#getHotStandbyKeepaliveMillis()}.
+     * @return the period in milliseconds, defaults to 2 minutes.
+     */
+    public int getHotStandbyKeepaliveMillis() {
+        return hotStandbyKeepaliveMillis;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setHotStandbyKeepaliveMillis(int)}.
+     * @param hotStandbyKeepaliveMillis the period in milliseconds, must be greater than 0. Defaults to 2 minutes.
+     */
+    public void setHotStandbyKeepaliveMillis(int hotStandbyKeepaliveMillis) {
+        if (hotStandbyKeepaliveMillis <= 0) {
+            throw new IllegalArgumentException("Parameter hotStandbyKeepaliveMillis: invalid value " + hotStandbyKeepaliveMillis + ": must be greater than 0");
+        }
+        this.hotStandbyKeepaliveMillis = hotStandbyKeepaliveMillis;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#isInPlaceReattach()}.
+     * @return true if enabled, false by default.
+     */
+    public boolean isInPlaceReattach() {
+        return inPlaceReattach;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setInPlaceReattach(boolean)}.
+     * @param inPlaceReattach true to enable, false by default.
+     */
+    public void setInPlaceReattach(boolean inPlaceReattach) {
+        this.inPlaceReattach = inPlaceReattach;
+        invalidate();
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#isWorkerProbing()}.
+     * @return true if enabled, false by default.
+     */
+    public boolean isWorkerProbing() {
+        return workerProbing;
+    }
+
+    /**
+     * See {@link FailoverReconnectExtension#setWorkerProbing(boolean)}.
+     * @param workerProbing true to enable, false by default.
+     */
+    public void setWorkerProbing(boolean workerProbing) {
+        this.workerProbing = workerProbing;
+        invalidate();
+    }
+
+    /**
+     * Returns the hash of the current configuration. The hash changes whenever the configuration changes, and therefore can be used
+     * e.g. as a cache key or an ETag.
+     * @return the hash, not null.
+     */
+    public String getConfigHash() {
+        return getRendered().configHash;
+    }
+
+    private void invalidate() {
+        rendered = null;
+    }
+
+    private Rendered getRendered() {
+        Rendered result = rendered;
+        if (result == null) {
+            final JsonObject config = Json.createObject();
+            config.put("v", FailoverConfig.BOOTSTRAP_CONFIG_VERSION);
+            final JsonArray jsonEndpoints = Json.createArray();
+            for (FailoverEndpoint endpoint : endpoints) {
+                final JsonObject jsonEndpoint = Json.createObject();
+                jsonEndpoint.put("url", endpoint.url);
+                if (endpoint.probePath != null) {
+                    jsonEndpoint.put("probePath", endpoint.probePath);
+                }
+                jsonEndpoint.put("strategy", endpoint.strategy.name());
+                jsonEndpoint.put("timeoutMillis", endpoint.timeoutMillis);
+                jsonEndpoint.put("weight", endpoint.weight);
+                if (endpoint.zone != null) {
+                    jsonEndpoint.put("zone", endpoint.zone);
+                }
+                if (endpoint.version != null) {
+                    jsonEndpoint.put("version", endpoint.version);
+                }
+                jsonEndpoints.set(jsonEndpoints.length(), jsonEndpoint);
+            }
+            config.put("endpoints", jsonEndpoints);
+            config.put("randomRobin", randomRobin);
+            config.put("infinite", infinite);
+            config.put("pingMillis", pingMillis);
+            if (pingImagePath != null) {
+                config.put("pingImagePath", pingImagePath);
+            }
+            if (telemetryPath != null) {
+                config.put("telemetryPath", telemetryPath);
+            }
+            config.put("logLevel", logLevel.name());
+            config.put("logToConsole", logToConsole);
+            config.put("initialNodeSelection", initialNodeSelection);
+            config.put("initialNodeSelectionBudgetMillis", initialNodeSelectionBudgetMillis);
+            if (loadPath != null) {
+                config.put("loadPath", loadPath);
+            }
+            config.put("healthPort", healthPort);
+            config.put("hotStandby", hotStandby);
+            config.put("hotStandbyKeepaliveMillis", hotStandbyKeepaliveMillis);
+            config.put("inPlaceReattach", inPlaceReattach);
+            config.put("workerProbing", workerProbing);
+            final String hash = hash(config.toJson());
+            config.put("hash", hash);
+            // the JSON is embedded into a <script> element: make sure that no URL can close the element prematurely.
+            final String json = config.toJson().replace("<", "\\u003c");
+            String script = "window." + FailoverConfig.BOOTSTRAP_CONFIG_VARIABLE + "=" + json + ";";
+            if (initialNodeSelection) {
+                script += "\n" + INITIAL_NODE_SELECTOR;
+            }
+            result = new Rendered(script, hash, initialNodeSelection);
+            rendered = result;
+        }
+        return result;
+    }
+
+    private static String hash(String json) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(json.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Element createScriptElement(Rendered rendered) {
+        final Element element = new Element("script");
+        element.attr("type", "text/javascript");
+        element.appendChild(new DataNode(rendered.script));
+        return element;
+    }
+
+    @Override
+    public void modifyBootstrapFragment(BootstrapFragmentResponse response) {
+        // fired both for the full bootstrap page and for the embedded fragment. The config must be defined before
+        // the widgetset is started, hence it goes first.
+        final Rendered rendered = getRendered();
+        if (rendered.initialNodeSelection) {
+            deferInitApplication(response.getFragmentNodes());
+        }
+        response.getFragmentNodes().add(0, createScriptElement(rendered));
+    }
+
+    /**
+     * Wraps the script calling <code>vaadin.initApplication()</code> into a function passed to the initial node selection.
+     */
+    private static void deferInitApplication(List<Node> fragmentNodes) {
+        for (Node node : fragmentNodes) {
+            if (!(node instanceof Element)) {
+                continue;
+            }
+            for (Element script : ((Element) node).getElementsByTag("script")) {
+                if (script.dataNodes().size() != 1 || !script.data().contains("vaadin.initApplication(")) {
+                    continue;
+                }
+                final String selector = "window." + FailoverConfig.BOOTSTRAP_CONFIG_VARIABLE;
+                script.dataNodes().get(0).setWholeData("(" + selector + " && " + selector + ".selectInitialNode || function (init) { init(); })(function () {\n"
+                        + script.data() + "\n});");
+            }
+        }
+    }
+
+    @Override
+    public void modifyBootstrapPage(BootstrapPageResponse response) {
+        // already handled by modifyBootstrapFragment()
+    }
+}
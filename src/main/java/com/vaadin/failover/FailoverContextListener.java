@@ -0,0 +1,39 @@
+package com.vaadin.failover;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Stops the background threads of the fail-over services when the web application is undeployed. The services are singletons living
+ * in the web application's class loader; a thread left running would pin the class loader (and all the classes of the application)
+ * after a redeploy.
+ * <p>
+ * Register the listener in your <code>web.xml</code>:
+ * <pre>
+ * &lt;listener&gt;
+ *     &lt;listener-class&gt;com.vaadin.failover.FailoverContextListener&lt;/listener-class&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ * or annotate a subclass with <code>@WebListener</code>.
+ * @author mavi
+ */
+public class FailoverContextListener implements ServletContextListener {
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        FailoverWarmup.get().shutdown();
+        FailoverRebalancer.get().shutdown();
+        HandoffRefresher.get().shutdown();
+        FailoverNodeHealth.get().shutdown();
+        FailoverSurge.get().shutdown();
+        FailoverEndpointProber.get().shutdown();
+        try {
+            FailoverHealthResponder.get().stop();
+        } catch (NoClassDefFoundError e) {
+            // com.sun.net.httpserver is not available (it's an optional import in OSGi), so the responder can't be running
+        }
+    }
+}
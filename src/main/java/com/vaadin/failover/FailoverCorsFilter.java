@@ -0,0 +1,71 @@
+package com.vaadin.failover;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Allows the pages loaded from the other nodes to talk to the Vaadin servlet of this node, which is needed by the in-place re-attach
+ * (see {@link FailoverReconnectExtension#setInPlaceReattach(boolean)}). Map this filter in front of the Vaadin servlet on all nodes.
+ * The requests are credentialed (they carry the session cookie), therefore only the listed origins are allowed.
+ * <p>
+ * Init parameters:
+ * <ul>
+ *     <li><code>allowedOrigins</code> - comma-separated origins of the other nodes, e.g. <code>http://server1:8080,http://server2:8080</code></li>
+ * </ul>
+ * Note that the browsers only send cookies cross-site when the session cookie is <code>SameSite=None; Secure</code>; nodes which are
+ * same-site (e.g. <code>a.example.com</code> and <code>b.example.com</code>) do not need that.
+ * @author mavi
+ */
+public class FailoverCorsFilter implements Filter {
+    private final Set<String> allowedOrigins = new HashSet<>();
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        final String origins = filterConfig.getInitParameter("allowedOrigins");
+        if (origins == null) {
+            throw new ServletException("Init parameter allowedOrigins: invalid value null: must list the origins of the other nodes");
+        }
+        for (String origin : Arrays.asList(origins.split(","))) {
+            if (!origin.trim().isEmpty()) {
+                allowedOrigins.add(origin.trim());
+            }
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final HttpServletRequest req = (HttpServletRequest) request;
+        final HttpServletResponse resp = (HttpServletResponse) response;
+        final String origin = req.getHeader("Origin");
+        if (origin == null || !allowedOrigins.contains(origin)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        resp.setHeader("Access-Control-Allow-Origin", origin);
+        resp.setHeader("Access-Control-Allow-Credentials", "true");
+        resp.addHeader("Vary", "Origin");
+        if ("OPTIONS".equals(req.getMethod()) && req.getHeader("Access-Control-Request-Method") != null) {
+            // the preflight of the UIDL requests, which are sent as application/json
+            resp.setHeader("Access-Control-Allow-Methods", "GET, POST");
+            resp.setHeader("Access-Control-Allow-Headers", "Content-Type");
+            resp.setHeader("Access-Control-Max-Age", "600");
+            resp.setStatus(HttpServletResponse.SC_OK);
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
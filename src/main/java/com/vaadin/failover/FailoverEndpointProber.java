@@ -0,0 +1,345 @@
+package com.vaadin.failover;
+
+import com.vaadin.failover.client.FailoverConfig;
+import com.vaadin.failover.client.FailoverEndpoint;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Probes the fail-over nodes from the server, so that the browsers know which nodes are dead before they even start failing over.
+ * Every round probes all nodes at once (see {@link #start(List, int, int)}); the outcome is pushed to all connected UIs as
+ * {@link FailoverEndpoint#healthy} and the browsers then try the dead nodes last. The server's view only reorders the nodes -
+ * the browser still probes every node by itself, since the server may see the network differently.
+ * <p>
+ * A node is dead if it does not respond within its {@link FailoverEndpoint#timeoutMillis} (5 seconds if not set) or if it responds
+ * with <code>503</code>; any other response means the node is alive. The node URL itself is never requested, since that would create
+ * a session (and a UI) on the node with every probe: the probe goes to the node's {@link FailoverEndpoint#probePath}, or to the default
+ * probe path passed to {@link #start(List, String, int, int)}, or to the static {@value #DEFAULT_PROBE_PATH}. When the nodes run the
+ * {@link FailoverHealthResponder}, pass its port to {@link #start(List, String, int, int, int)}: the probes then go to that port, the same
+ * way as the browsers' probes do (see {@link FailoverConfig#getProbeUrl(String, int)}).
+ * <p>
+ * The outcome is only pushed to the UIs which list a node whose health has changed.
+ * <p>
+ * There is one instance per web application, see {@link #get()}. The threads are started by {@link #start(List, String, int, int)}
+ * and stopped by {@link #shutdown()}, see {@link FailoverContextListener}.
+ * @author mavi
+ */
+public final class FailoverEndpointProber {
+    private static final Logger log = Logger.getLogger(FailoverEndpointProber.class.getName());
+
+    /**
+     * The probe timeout of the nodes with no {@link FailoverEndpoint#timeoutMillis}.
+     */
+    private static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+    /**
+     * At most this many nodes are probed in parallel.
+     */
+    private static final int MAX_PARALLEL_PROBES = 8;
+    /**
+     * Probed when neither the node nor {@link #start(List, String, int, int)} specify a probe path: a static resource served by
+     * every Vaadin application, which doesn't create a session.
+     */
+    public static final String DEFAULT_PROBE_PATH = "/VAADIN/vaadinBootstrap.js";
+
+    /**
+     * The outcome of the most recent probe of one node; immutable.
+     */
+    private static final class Result {
+        final boolean alive;
+        /**
+         * When the probe finished, in milliseconds.
+         */
+        final long at;
+
+        Result(boolean alive, long at) {
+            this.alive = alive;
+            this.at = at;
+        }
+    }
+
+    private static final FailoverEndpointProber INSTANCE = new FailoverEndpointProber();
+
+    /**
+     * Returns the prober.
+     * @return the instance, not null.
+     */
+    public static FailoverEndpointProber get() {
+        return INSTANCE;
+    }
+
+    /**
+     * URL to the outcome of the most recent probe.
+     */
+    private final ConcurrentMap<String, Result> results = new ConcurrentHashMap<>();
+    private volatile long validityMillis = 0;
+    /**
+     * The health as last pushed to the UIs, URL to {@link #getHealth(String)}.
+     */
+    private volatile Map<String, Boolean> pushed = Collections.emptyMap();
+
+    private ScheduledExecutorService scheduler = null;
+    /**
+     * Performs the probes of one round in parallel.
+     */
+    private ExecutorService probes = null;
+    private ScheduledFuture<?> probing = null;
+
+    private FailoverEndpointProber() {
+    }
+
+    /**
+     * Starts probing given nodes periodically, the nodes with no {@link FailoverEndpoint#probePath} at {@value #DEFAULT_PROBE_PATH}.
+     * Replaces the nodes probed so far, if any.
+     * @param endpoints the nodes to probe, typically the same ones as passed to {@link FailoverReconnectExtension#setEndpoints(List)}.
+     *                  Not null. The node URL with the {@link FailoverEndpoint#probePath} appended is probed.
+     * @param periodSeconds the period of the probing.
+     * @param validitySeconds the outcome of a probe is forgotten after this period, so that a stuck prober does not mislead the browsers.
+     *                        Should be greater than <code>periodSeconds</code>.
+     */
+    public void start(List<FailoverEndpoint> endpoints, int periodSeconds, int validitySeconds) {
+        start(endpoints, null, periodSeconds, validitySeconds);
+    }
+
+    /**
+     * Starts probing given nodes periodically. Replaces the nodes probed so far, if any.
+     * @param endpoints the nodes to probe, typically the same ones as passed to {@link FailoverReconnectExtension#setEndpoints(List)}.
+     *                  Not null. The node URL with the {@link FailoverEndpoint#probePath} appended is probed.
+     * @param defaultProbePath appended to the URL of the nodes with no {@link FailoverEndpoint#probePath}, typically the same as
+     *                         {@link FailoverReconnectExtension#setPingImagePath(String)}. Must point to a resource which doesn't create
+     *                         a session. If null, {@value #DEFAULT_PROBE_PATH} is used.
+     * @param periodSeconds the period of the probing.
+     * @param validitySeconds the outcome of a probe is forgotten after this period, so that a stuck prober does not mislead the browsers.
+     *                        Should be greater than <code>periodSeconds</code>.
+     */
+    public void start(List<FailoverEndpoint> endpoints, String defaultProbePath, int periodSeconds, int validitySeconds) {
+        start(endpoints, defaultProbePath, 0, periodSeconds, validitySeconds);
+    }
+
+    /**
+     * Starts probing given nodes periodically. Replaces the nodes probed so far, if any.
+     * @param endpoints the nodes to probe, typically the same ones as passed to {@link FailoverReconnectExtension#setEndpoints(List)}.
+     *                  Not null.
+     * @param defaultProbePath the probe path of the nodes with no {@link FailoverEndpoint#probePath}, see
+     *                         {@link #start(List, String, int, int)}. If null, {@value #DEFAULT_PROBE_PATH} is used.
+     * @param healthPort if not 0, the probes go to this port of every node instead of the node URL, typically the same as
+     *                   {@link FailoverReconnectExtension#setHealthPort(int)}.
+     * @param periodSeconds the period of the probing.
+     * @param validitySeconds the outcome of a probe is forgotten after this period, so that a stuck prober does not mislead the browsers.
+     *                        Should be greater than <code>periodSeconds</code>.
+     */
+    public synchronized void start(List<FailoverEndpoint> endpoints, String defaultProbePath, final int healthPort, int periodSeconds, int validitySeconds) {
+        final List<FailoverEndpoint> copy = FailoverReconnectExtension.checkEndpoints(endpoints);
+        final String fallbackPath = defaultProbePath != null ? defaultProbePath : DEFAULT_PROBE_PATH;
+        if (!fallbackPath.startsWith("/")) {
+            throw new IllegalArgumentException("Parameter defaultProbePath: invalid value " + defaultProbePath + ": must start with /");
+        }
+        if (healthPort < 0 || healthPort > 65535) {
+            throw new IllegalArgumentException("Parameter healthPort: invalid value " + healthPort + ": must be 0..65535");
+        }
+        if (periodSeconds < 1) {
+            throw new IllegalArgumentException("Parameter periodSeconds: invalid value " + periodSeconds + ": must be 1 or greater");
+        }
+        if (validitySeconds < 1) {
+            throw new IllegalArgumentException("Parameter validitySeconds: invalid value " + validitySeconds + ": must be 1 or greater");
+        }
+        stop();
+        validityMillis = TimeUnit.SECONDS.toMillis(validitySeconds);
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "failover-endpoint-prober");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            probes = Executors.newFixedThreadPool(MAX_PARALLEL_PROBES, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "failover-endpoint-probe-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        final ExecutorService probes = this.probes;
+        probing = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    probeAll(copy, fallbackPath, healthPort, probes);
+                    refreshHealth(copy);
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Failed to probe the fail-over nodes", e);
+                }
+            }
+        }, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops probing and forgets the outcome of all probes.
+     */
+    public synchronized void stop() {
+        if (probing != null) {
+            probing.cancel(false);
+            probing = null;
+            results.clear();
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshHealth(Collections.<FailoverEndpoint>emptyList());
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops probing and stops the threads. A later {@link #start(List, String, int, int)} starts them again.
+     */
+    public synchronized void shutdown() {
+        stop();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            probes.shutdownNow();
+            probes = null;
+        }
+    }
+
+    /**
+     * Returns the outcome of the most recent probe of given node.
+     * @param url the URL of the node, not null.
+     * @return true if the node is alive, false if it is dead, null if the node has not been probed recently.
+     */
+    public Boolean getHealth(String url) {
+        final Result result = results.get(url);
+        if (result == null || System.currentTimeMillis() - result.at > validityMillis) {
+            return null;
+        }
+        return result.alive;
+    }
+
+    /**
+     * Probes all nodes in parallel and waits until all probes finish.
+     */
+    private void probeAll(List<FailoverEndpoint> endpoints, final String fallbackPath, final int healthPort, ExecutorService probes) throws InterruptedException {
+        final List<Callable<Void>> tasks = new ArrayList<>(endpoints.size());
+        for (final FailoverEndpoint endpoint : endpoints) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final boolean alive = probe(getProbeUrl(endpoint, fallbackPath, healthPort), endpoint);
+                    results.put(endpoint.url, new Result(alive, System.currentTimeMillis()));
+                    return null;
+                }
+            });
+        }
+        probes.invokeAll(tasks);
+    }
+
+    /**
+     * Computes the URL to probe given node at. Never the node URL itself: that would create a session on every probe.
+     * @param endpoint the node, not null.
+     * @param fallbackPath the probe path if the node has none, starting with a slash; not null.
+     * @param healthPort see {@link #start(List, String, int, int, int)}.
+     * @return the URL, not null.
+     */
+    static String getProbeUrl(FailoverEndpoint endpoint, String fallbackPath, int healthPort) {
+        final String base = FailoverConfig.getProbeUrl(endpoint.url, healthPort);
+        final String path = endpoint.probePath != null ? endpoint.probePath : fallbackPath;
+        if (base.endsWith("/") && path.startsWith("/")) {
+            return base + path.substring(1);
+        }
+        if (!base.endsWith("/") && !path.startsWith("/")) {
+            return base + "/" + path;
+        }
+        return base + path;
+    }
+
+    private static boolean probe(String url, FailoverEndpoint endpoint) {
+        final int timeoutMillis = endpoint.timeoutMillis > 0 ? endpoint.timeoutMillis : DEFAULT_TIMEOUT_MILLIS;
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            try {
+                // the node refuses traffic e.g. while warming up or when full
+                return connection.getResponseCode() != HttpURLConnection.HTTP_UNAVAILABLE;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to probe " + url, e);
+            return false;
+        }
+    }
+
+    /**
+     * If the health of any node changed since the last push (including the outcomes which have expired), pushes the health to the
+     * connected UIs which list any of the changed nodes.
+     */
+    private void refreshHealth(List<FailoverEndpoint> endpoints) {
+        final Map<String, Boolean> current = new HashMap<>();
+        for (FailoverEndpoint endpoint : endpoints) {
+            current.put(endpoint.url, getHealth(endpoint.url));
+        }
+        final Set<String> changed = new HashSet<>();
+        for (String url : current.keySet()) {
+            if (!Objects.equals(current.get(url), pushed.get(url))) {
+                changed.add(url);
+            }
+        }
+        for (String url : pushed.keySet()) {
+            if (!Objects.equals(current.get(url), pushed.get(url))) {
+                changed.add(url);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        pushed = Collections.unmodifiableMap(current);
+        log.info("Fail-over node health: " + current);
+        for (final FailoverReconnectExtension extension : new ArrayList<>(FailoverReconnectExtension.ATTACHED)) {
+            final UI ui = extension.getUI();
+            if (ui == null || ui.getSession() == null || !extension.hasEndpointAmong(changed)) {
+                continue;
+            }
+            try {
+                ui.access(new Runnable() {
+                    @Override
+                    public void run() {
+                        extension.updateEndpointHealth();
+                    }
+                });
+            } catch (UIDetachedException e) {
+                // the UI is gone, nothing to update
+            }
+        }
+    }
+}
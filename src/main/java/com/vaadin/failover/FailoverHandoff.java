@@ -0,0 +1,297 @@
+package com.vaadin.failover;
+
+import com.vaadin.server.Page;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.UI;
+import elemental.json.Json;
+import elemental.json.JsonException;
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Carries the user's identity and navigation state across the fail-over redirect, so that the user does not land on the spare
+ * logged out and at the root view.
+ * <p>
+ * The client keeps a small token which the server refreshes periodically (see {@link FailoverReconnectExtension#setHandoff(FailoverHandoff, Provider)}).
+ * When failing over, the token is appended to the URL as the {@value #PARAMETER} parameter; the spare verifies it
+ * via {@link #restore(VaadinRequest)} and restores the session without a fresh login.
+ * <p>
+ * The token is encrypted with AES-CBC and authenticated with HMAC-SHA256: it can neither be read nor forged without the key. All
+ * servers must share the same key, e.g. via the {@value #KEY_PROPERTY} system property, see {@link #fromSystemProperty()}.
+ * <p>
+ * Since the token travels in the URL, it may end up in the access logs and the browser history. To limit the damage, the token
+ * is short-lived (see {@link #getMaxAgeMillis()}), each node accepts it only once (it carries a random nonce which the node remembers
+ * until the token expires), and {@link #restore(VaadinRequest)} removes it from the browser's address bar.
+ * @author mavi
+ */
+public final class FailoverHandoff implements Serializable {
+    /**
+     * Captures the handoff state of a UI.
+     */
+    public interface Provider extends Serializable {
+        /**
+         * Captures the current state of the UI. Called with the session lock held.
+         * @param ui the UI, not null.
+         * @return the state, or null if there is nothing to hand off.
+         */
+        HandoffState capture(UI ui);
+    }
+
+    /**
+     * The URL parameter carrying the token.
+     */
+    public static final String PARAMETER = "failover-handoff";
+
+    /**
+     * The system property (and also the environment variable, with dots replaced by underscores and uppercased) holding the
+     * Base64-encoded shared key.
+     */
+    public static final String KEY_PROPERTY = "failover.handoff.key";
+
+    /**
+     * Tolerated difference of the server clocks: tokens issued up to this much in the future are accepted.
+     */
+    static final long CLOCK_SKEW_MILLIS = 5000;
+    /**
+     * The default max age of the tokens: the token is refreshed every 20 seconds (see {@link #getRefreshMillis()}), leaving
+     * at least 40 seconds for the fail-over itself.
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 60 * 1000L;
+
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int NONCE_LENGTH = 16;
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * The nonces of the tokens accepted by this node, mapped to the time the token expires; shared by all instances.
+     */
+    private static final ConcurrentMap<String, Long> usedNonces = new ConcurrentHashMap<>();
+
+    private final byte[] encryptionKey;
+    private final byte[] macKey;
+    private final long maxAgeMillis;
+
+    /**
+     * Creates the handoff.
+     * @param key the AES key shared by all servers, 16, 24 or 32 bytes long.
+     * @param maxAgeMillis tokens older than this are rejected by {@link #restore(VaadinRequest)}. Keep it short - a few seconds
+     *                     longer than the time the fail-over takes, plus {@link #getRefreshMillis()}.
+     */
+    public FailoverHandoff(byte[] key, long maxAgeMillis) {
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("Parameter key: invalid length " + key.length + ": must be 16, 24 or 32 bytes");
+        }
+        if (maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("Parameter maxAgeMillis: invalid value " + maxAgeMillis + ": must be greater than 0");
+        }
+        // separate keys for the encryption and the authentication, derived from the shared key
+        this.encryptionKey = Arrays.copyOf(hmac(key, "failover-handoff-encryption".getBytes(StandardCharsets.UTF_8)), key.length);
+        this.macKey = hmac(key, "failover-handoff-authentication".getBytes(StandardCharsets.UTF_8));
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Creates the handoff with the key taken from the {@value #KEY_PROPERTY} system property or the <code>FAILOVER_HANDOFF_KEY</code>
+     * environment variable. Tokens expire after {@link #DEFAULT_MAX_AGE_MILLIS}.
+     * @return the handoff, not null.
+     * @throws IllegalStateException if the key is not configured.
+     */
+    public static FailoverHandoff fromSystemProperty() {
+        String key = System.getProperty(KEY_PROPERTY);
+        if (key == null) {
+            key = System.getenv(KEY_PROPERTY.replace('.', '_').toUpperCase());
+        }
+        if (key == null) {
+            throw new IllegalStateException("The handoff key is not configured: set the " + KEY_PROPERTY + " system property");
+        }
+        return new FailoverHandoff(Base64Codec.decode(key.trim()), DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * The {@link FailoverReconnectExtension} refreshes the token once it is this old: a third of {@link #getMaxAgeMillis()}.
+     * @return the refresh period in milliseconds.
+     */
+    public long getRefreshMillis() {
+        return maxAgeMillis / 3;
+    }
+
+    /**
+     * Encrypts the state into a URL-safe token.
+     * @param state the state, not null.
+     * @return the token, not null.
+     */
+    public String encode(HandoffState state) {
+        final JsonObject json = Json.createObject();
+        if (state.getIdentity() != null) {
+            json.put("id", state.getIdentity());
+        }
+        if (state.getRoute() != null) {
+            json.put("route", state.getRoute());
+        }
+        final JsonObject params = Json.createObject();
+        for (Map.Entry<String, String> entry : state.getParameters().entrySet()) {
+            params.put(entry.getKey(), entry.getValue());
+        }
+        json.put("params", params);
+        json.put("iat", state.getIssuedAt());
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        json.put("jti", Base64Codec.encodeUrlSafe(nonce));
+        try {
+            final byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(encryptionKey, "AES"), new IvParameterSpec(iv));
+            final byte[] encrypted = cipher.doFinal(json.toJson().getBytes(StandardCharsets.UTF_8));
+            final byte[] token = Arrays.copyOf(iv, IV_LENGTH + encrypted.length + MAC_LENGTH);
+            System.arraycopy(encrypted, 0, token, IV_LENGTH, encrypted.length);
+            final byte[] mac = mac(token, IV_LENGTH + encrypted.length);
+            System.arraycopy(mac, 0, token, IV_LENGTH + encrypted.length, MAC_LENGTH);
+            return Base64Codec.encodeUrlSafe(token);
+        } catch (GeneralSecurityException e) {
+            // AES-CBC and HMAC-SHA256 are mandatory on every Java platform
+            throw new RuntimeException(e);
+        }
+    }
+
+    private byte[] mac(byte[] bytes, int length) throws GeneralSecurityException {
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+        mac.update(bytes, 0, length);
+        return mac.doFinal();
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Verifies and decrypts the token. Each token is accepted only once by this node; subsequent attempts return null.
+     * @param token the token produced by {@link #encode(HandoffState)}, may be null.
+     * @return the state, or null if the token is null, forged, corrupted, already used, older than {@link #getMaxAgeMillis()}
+     * or issued in the future.
+     */
+    public HandoffState decode(String token) {
+        if (token == null) {
+            return null;
+        }
+        try {
+            final byte[] bytes = Base64Codec.decode(token);
+            final int encryptedLength = bytes.length - IV_LENGTH - MAC_LENGTH;
+            if (encryptedLength <= 0) {
+                return null;
+            }
+            final byte[] expectedMac = mac(bytes, IV_LENGTH + encryptedLength);
+            if (!MessageDigest.isEqual(expectedMac, Arrays.copyOfRange(bytes, IV_LENGTH + encryptedLength, bytes.length))) {
+                return null;
+            }
+            final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(encryptionKey, "AES"), new IvParameterSpec(bytes, 0, IV_LENGTH));
+            final byte[] decrypted = cipher.doFinal(bytes, IV_LENGTH, encryptedLength);
+            final JsonObject json = Json.parse(new String(decrypted, StandardCharsets.UTF_8));
+            if (!json.hasKey("iat") || json.get("iat").getType() != JsonType.NUMBER) {
+                return null;
+            }
+            final long issuedAt = (long) json.getNumber("iat");
+            final long now = System.currentTimeMillis();
+            final long age = now - issuedAt;
+            if (age > maxAgeMillis || age < -CLOCK_SKEW_MILLIS) {
+                return null;
+            }
+            final String nonce = getString(json, "jti");
+            if (nonce == null || !markUsed(nonce, issuedAt + maxAgeMillis + CLOCK_SKEW_MILLIS, now)) {
+                return null;
+            }
+            final Map<String, String> params = new LinkedHashMap<>();
+            final JsonObject jsonParams = json.getObject("params");
+            if (jsonParams != null) {
+                for (String name : jsonParams.keys()) {
+                    params.put(name, jsonParams.getString(name));
+                }
+            }
+            return new HandoffState(getString(json, "id"), getString(json, "route"), params, issuedAt);
+        } catch (IllegalArgumentException | GeneralSecurityException | JsonException | ClassCastException e) {
+            // forged or corrupted token
+            return null;
+        }
+    }
+
+    /**
+     * Remembers the nonce until the token expires.
+     * @return true if the nonce has not been used yet.
+     */
+    private static boolean markUsed(String nonce, long expiresAt, long now) {
+        if (usedNonces.putIfAbsent(nonce, expiresAt) != null) {
+            return false;
+        }
+        // the tokens are short-lived, therefore the map stays small; purge it every now and then
+        if (usedNonces.size() % 64 == 0) {
+            for (Iterator<Long> it = usedNonces.values().iterator(); it.hasNext(); ) {
+                if (it.next() < now) {
+                    it.remove();
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String getString(JsonObject json, String key) {
+        final JsonValue value = json.get(key);
+        return value != null && value.getType() == JsonType.STRING ? value.asString() : null;
+    }
+
+    /**
+     * Verifies the token carried by the fail-over redirect. Call this from your {@link UI#init(VaadinRequest)} on the spare server; if a state
+     * is returned, log the user in as {@link HandoffState#getIdentity()} and navigate to {@link HandoffState#getRoute()}.
+     * <p>
+     * The token is removed from the browser's address bar (and thus from the history and from the <code>Referer</code> of the
+     * subsequent requests), whether valid or not.
+     * @param request the request passed to {@link UI#init(VaadinRequest)}, not null.
+     * @return the state, or null if the request carries no valid token.
+     */
+    public HandoffState restore(VaadinRequest request) {
+        final String token = request.getParameter(PARAMETER);
+        if (token != null && Page.getCurrent() != null) {
+            removeUrlParameter(Page.getCurrent(), PARAMETER);
+        }
+        return decode(token);
+    }
+
+    /**
+     * Removes given parameter from the browser's address bar, without reloading the page.
+     * @param page the page, not null.
+     * @param parameter the parameter name, not null.
+     */
+    static void removeUrlParameter(Page page, String parameter) {
+        page.getJavaScript().execute("try{var u=new URL(window.location.href);u.searchParams.delete("
+                + Json.create(parameter).toJson() + ");window.history.replaceState(window.history.state,'',u.href);}catch(e){}");
+    }
+}
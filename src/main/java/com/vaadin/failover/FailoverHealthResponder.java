@@ -0,0 +1,166 @@
+package com.vaadin.failover;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Answers the fail-over probes on a side port, outside of the servlet container. During a fail-over storm the container's worker
+ * threads are all busy serving the arriving browsers; a probe queued behind them times out and a live (just busy) server
+ * is considered dead, which makes the storm worse. This responder runs on its own tiny thread pool and never touches the application,
+ * so it answers within a bounded time regardless of the application load.
+ * <p>
+ * Any GET to the side port is answered with a 1x1 GIF image and with CORS enabled, so that both the Image Ping and the Ajax Ping work.
+ * When the server has no capacity for new sessions (it is still warming up, see {@link FailoverWarmup#isReady()}, or the admission
+ * control is over budget, see {@link FailoverAdmission#hasCapacity()}), the responder answers with <code>503 Service Unavailable</code>
+ * and the browsers move on to the next URL. The current load (see {@link FailoverRebalancer#getLoad()}) is reported in the
+ * {@value FailoverLoadServlet#LOAD_HEADER} header.
+ * <p>
+ * Start the responder via {@link #start(int)} and tell the browsers the port via
+ * {@link FailoverReconnectExtension#setHealthPort(int)}. There is one instance per web application, see {@link #get()}. The side port
+ * stays open until {@link #stop()} is called; register the {@link FailoverContextListener} to have it closed on undeploy, otherwise
+ * a redeployed application fails to bind the port again.
+ * <p>
+ * The responder uses the JDK's <code>com.sun.net.httpserver</code>; in OSGi the package is imported optionally, so the bundle
+ * resolves without it and only the responder is unavailable.
+ * @author mavi
+ */
+public final class FailoverHealthResponder {
+    private static final Logger log = Logger.getLogger(FailoverHealthResponder.class.getName());
+
+    /**
+     * A transparent 1x1 GIF.
+     */
+    private static final byte[] PIXEL = {
+            0x47, 0x49, 0x46, 0x38, 0x39, 0x61, 0x01, 0x00, 0x01, 0x00, (byte) 0x80, 0x00, 0x00, 0x00, 0x00, 0x00,
+            (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x21, (byte) 0xf9, 0x04, 0x01, 0x00, 0x00, 0x00, 0x00, 0x2c, 0x00, 0x00,
+            0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00, 0x02, 0x02, 0x44, 0x01, 0x00, 0x3b
+    };
+
+    private static final FailoverHealthResponder INSTANCE = new FailoverHealthResponder();
+
+    /**
+     * Returns the responder.
+     * @return the instance, not null.
+     */
+    public static FailoverHealthResponder get() {
+        return INSTANCE;
+    }
+
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+
+    private FailoverHealthResponder() {
+    }
+
+    /**
+     * Starts answering the probes via plain HTTP on given port, on all interfaces. Stops the previous listener, if any.
+     * @param port the port, 1..65535.
+     * @throws IOException if the port can not be bound.
+     */
+    public void start(int port) throws IOException {
+        start(new InetSocketAddress(port), null);
+    }
+
+    /**
+     * Starts answering the probes on given address. Stops the previous listener, if any. Use HTTPS when the application
+     * itself is served via HTTPS, otherwise the browser blocks the probes as mixed content.
+     * @param address the address to listen at, not null.
+     * @param sslContext if not null, the probes are answered via HTTPS using this context.
+     * @throws IOException if the address can not be bound.
+     */
+    public synchronized void start(InetSocketAddress address, SSLContext sslContext) throws IOException {
+        if (address == null) {
+            throw new IllegalArgumentException("Parameter address: invalid value null: must not be null");
+        }
+        stop();
+        final HttpServer newServer;
+        if (sslContext != null) {
+            final HttpsServer httpsServer = HttpsServer.create(address, 50);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+            newServer = httpsServer;
+        } else {
+            newServer = HttpServer.create(address, 50);
+        }
+        newServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "failover-health");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        newServer.setExecutor(executor);
+        newServer.start();
+        server = newServer;
+        log.info("Answering fail-over probes at " + newServer.getAddress());
+    }
+
+    /**
+     * Stops answering the probes. Does nothing if the responder is not running.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return true if the responder is running.
+     */
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    private static void respond(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Access-Control-Expose-Headers", FailoverLoadServlet.LOAD_HEADER);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set(FailoverLoadServlet.LOAD_HEADER, String.valueOf(FailoverRebalancer.get().getLoad()));
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!FailoverWarmup.get().isReady() || !FailoverAdmission.get().hasCapacity()) {
+                exchange.getResponseHeaders().set("Retry-After", "5");
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/gif");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, PIXEL.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(PIXEL);
+            }
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to answer the probe", e);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.vaadin.failover;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Reports the load of this server (see {@link FailoverRebalancer#getLoad()}) as a plain-text number, so that the peers can compare
+ * their load with ours, and so that the browsers can pick the least loaded node on the first visit. The load is also available in
+ * the {@value #LOAD_HEADER} header. CORS is enabled for any origin since the load is not a secret.
+ * @author mavi
+ */
+public class FailoverLoadServlet extends HttpServlet {
+    /**
+     * The response header carrying the load.
+     */
+    public static final String LOAD_HEADER = "X-Failover-Load";
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        final int load = FailoverRebalancer.get().getLoad();
+        resp.setContentType("text/plain; charset=utf-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.setHeader(LOAD_HEADER, String.valueOf(load));
+        // browsers read the load when selecting the initial node, see FailoverReconnectExtension.setInitialNodeSelection()
+        resp.setHeader("Access-Control-Allow-Origin", "*");
+        resp.setHeader("Access-Control-Expose-Headers", LOAD_HEADER);
+        resp.getWriter().println(load);
+    }
+}
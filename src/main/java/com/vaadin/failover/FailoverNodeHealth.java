@@ -0,0 +1,416 @@
+package com.vaadin.failover;
+
+import com.vaadin.failover.client.FailoverEndpoint;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+import elemental.json.Json;
+import elemental.json.JsonException;
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Crowd-sourced health of the fail-over nodes. Every browser which fails over reports the outcome of its probes to the server it lands on
+ * (as a part of the telemetry record, see {@link FailoverTelemetryServlet}; a record only counts once its browser has actually arrived,
+ * see {@link FailoverTelemetry}); this table aggregates them, with the older reports decaying
+ * exponentially. Nodes which many browsers have just found dead are marked as suspect; the list of suspects is pushed to all connected
+ * UIs (see {@link #getSuspectUrls()}) and the browsers then try the suspects last.
+ * <p>
+ * The table may also be shared with peers: {@link #startSharing(List, String, int)} periodically fetches the peers' own observations
+ * from their {@link FailoverNodeHealthServlet}. There is one instance per web application, see {@link #get()}.
+ * <p>
+ * Only the nodes configured via <code>setUrls()</code>/<code>setEndpoints()</code> of {@link FailoverReconnectExtension} or
+ * {@link FailoverBootstrapListener} are tracked; reports of any other URL are ignored, so that browsers can't grow the table at will.
+ * The background thread is started by the first report (or by {@link #startSharing(List, String, int)}) and stopped by
+ * {@link #shutdown()}, see {@link FailoverContextListener}.
+ * @author mavi
+ */
+public final class FailoverNodeHealth {
+    private static final Logger log = Logger.getLogger(FailoverNodeHealth.class.getName());
+
+    /**
+     * A node needs at least this many (decayed) failure reports to become a suspect.
+     */
+    private static final double MIN_FAILURES = 3;
+    /**
+     * A node becomes a suspect when at least this fraction of the (decayed) reports are failures.
+     */
+    private static final double SUSPECT_FAILURE_RATIO = 0.8;
+    /**
+     * Counts which have decayed below this total are dropped.
+     */
+    static final double EVICT_BELOW = 0.01;
+
+    /**
+     * Decayed report counts; immutable.
+     */
+    static final class Counts {
+        final double ok;
+        final double failed;
+        /**
+         * The time of the last decay, in milliseconds.
+         */
+        final long at;
+
+        Counts(double ok, double failed, long at) {
+            this.ok = ok;
+            this.failed = failed;
+            this.at = at;
+        }
+
+        Counts decayTo(long now, long halfLifeMillis) {
+            if (now <= at) {
+                return this;
+            }
+            final double factor = Math.pow(0.5, ((double) (now - at)) / halfLifeMillis);
+            return new Counts(ok * factor, failed * factor, now);
+        }
+
+        boolean isNegligible() {
+            return ok + failed < EVICT_BELOW;
+        }
+    }
+
+    private static final FailoverNodeHealth INSTANCE = new FailoverNodeHealth();
+
+    /**
+     * Returns the health table.
+     * @return the instance, not null.
+     */
+    public static FailoverNodeHealth get() {
+        return INSTANCE;
+    }
+
+    private volatile long halfLifeMillis = TimeUnit.MINUTES.toMillis(1);
+    /**
+     * Observations reported to this server.
+     */
+    private final ConcurrentMap<String, AtomicReference<Counts>> local = new ConcurrentHashMap<>();
+    /**
+     * The configured nodes; only these are tracked.
+     */
+    private final Set<String> nodeUrls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * The latest observations of each peer, peer URL to node URL to counts.
+     */
+    private final ConcurrentMap<String, Map<String, Counts>> peers = new ConcurrentHashMap<>();
+    /**
+     * The suspects as last pushed to the UIs.
+     */
+    private volatile List<String> suspects = Collections.emptyList();
+
+    private volatile ScheduledExecutorService executor = null;
+    private ScheduledFuture<?> sharing = null;
+
+    FailoverNodeHealth() {
+    }
+
+    /**
+     * Returns the background executor, starting it (together with the periodic refresh of the suspects) if needed.
+     */
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "failover-node-health");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshSuspects();
+                    } catch (Exception e) {
+                        log.log(Level.WARNING, "Failed to refresh the suspect nodes", e);
+                    }
+                }
+            }, 10, 10, TimeUnit.SECONDS);
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the background thread, including the sharing with peers. A later report starts it again.
+     */
+    public synchronized void shutdown() {
+        stopSharing();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Adds the configured nodes; only these are tracked. Called by {@link FailoverReconnectExtension} and
+     * {@link FailoverBootstrapListener} whenever their nodes are set.
+     * @param endpoints the nodes, not null.
+     */
+    void addNodes(List<FailoverEndpoint> endpoints) {
+        for (FailoverEndpoint endpoint : endpoints) {
+            nodeUrls.add(endpoint.url);
+        }
+    }
+
+    /**
+     * The older reports lose half of their weight after this period. Defaults to 1 minute.
+     * @param halfLifeMillis the half-life in milliseconds, must be greater than 0.
+     */
+    public void setHalfLifeMillis(long halfLifeMillis) {
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("Parameter halfLifeMillis: invalid value " + halfLifeMillis + ": must be greater than 0");
+        }
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    /**
+     * Records the outcome of one probe, as reported by a browser. Reports of nodes which are not configured are ignored.
+     * @param url the URL probed, not null.
+     * @param alive true if the probe succeeded.
+     */
+    public void record(String url, boolean alive) {
+        record(url, alive, System.currentTimeMillis());
+    }
+
+    void record(String url, boolean alive, long now) {
+        if (!nodeUrls.contains(url)) {
+            return;
+        }
+        if (executor == null) {
+            getExecutor();
+        }
+        AtomicReference<Counts> ref = local.get(url);
+        if (ref == null) {
+            final AtomicReference<Counts> newRef = new AtomicReference<>(new Counts(0, 0, now));
+            ref = local.putIfAbsent(url, newRef);
+            if (ref == null) {
+                ref = newRef;
+            }
+        }
+        while (true) {
+            final Counts current = ref.get();
+            final Counts decayed = current.decayTo(now, halfLifeMillis);
+            final Counts updated = new Counts(decayed.ok + (alive ? 1 : 0), decayed.failed + (alive ? 0 : 1), decayed.at);
+            if (ref.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the observations reported to this server (not including peers), decayed to now.
+     * @return URL to counts, not null.
+     */
+    Map<String, Counts> getLocal() {
+        return getLocal(System.currentTimeMillis());
+    }
+
+    Map<String, Counts> getLocal(long now) {
+        final Map<String, Counts> result = new HashMap<>();
+        for (Map.Entry<String, AtomicReference<Counts>> entry : local.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get().decayTo(now, halfLifeMillis));
+        }
+        return result;
+    }
+
+    /**
+     * Computes the nodes which many browsers have recently found dead, combining the local observations and the peers' ones.
+     * @return the URLs of the suspect nodes, sorted, not null.
+     */
+    public List<String> getSuspectUrls() {
+        final long now = System.currentTimeMillis();
+        final Map<String, Counts> combined = new HashMap<>(getLocal());
+        for (Map<String, Counts> peer : peers.values()) {
+            for (Map.Entry<String, Counts> entry : peer.entrySet()) {
+                final Counts c = entry.getValue().decayTo(now, halfLifeMillis);
+                final Counts existing = combined.get(entry.getKey());
+                combined.put(entry.getKey(), existing == null ? c : new Counts(existing.ok + c.ok, existing.failed + c.failed, now));
+            }
+        }
+        final Set<String> result = new TreeSet<>();
+        for (Map.Entry<String, Counts> entry : combined.entrySet()) {
+            final Counts c = entry.getValue();
+            if (c.failed >= MIN_FAILURES && c.failed / (c.ok + c.failed) >= SUSPECT_FAILURE_RATIO) {
+                result.add(entry.getKey());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Drops the local counts which have decayed to (almost) zero.
+     * @param now the current time in milliseconds.
+     */
+    void evictDecayed(long now) {
+        for (Map.Entry<String, AtomicReference<Counts>> entry : local.entrySet()) {
+            if (entry.getValue().get().decayTo(now, halfLifeMillis).isNegligible()) {
+                // a report racing with the removal may get lost; that's fine for a decaying statistic
+                local.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Drops the decayed counts, then recomputes the suspects; if they changed, pushes them to all connected UIs.
+     */
+    void refreshSuspects() {
+        evictDecayed(System.currentTimeMillis());
+        final List<String> current = getSuspectUrls();
+        if (current.equals(suspects)) {
+            return;
+        }
+        suspects = Collections.unmodifiableList(current);
+        log.info("Suspect nodes: " + current);
+        for (final FailoverReconnectExtension extension : new ArrayList<>(FailoverReconnectExtension.ATTACHED)) {
+            final UI ui = extension.getUI();
+            if (ui == null || ui.getSession() == null) {
+                continue;
+            }
+            try {
+                ui.access(new Runnable() {
+                    @Override
+                    public void run() {
+                        extension.updateSuspectUrls();
+                    }
+                });
+            } catch (UIDetachedException e) {
+                // the UI is gone, nothing to update
+            }
+        }
+    }
+
+    /**
+     * Returns the suspects as last computed by the periodic refresh.
+     * @return the URLs of the suspect nodes, not null.
+     */
+    List<String> getCachedSuspectUrls() {
+        return suspects;
+    }
+
+    /**
+     * Produces the local observations as JSON, for the peers.
+     * @return the JSON object: URL to <code>{"ok": n, "failed": n}</code>.
+     */
+    public String toJson() {
+        final JsonObject json = Json.createObject();
+        for (Map.Entry<String, Counts> entry : getLocal().entrySet()) {
+            final JsonObject counts = Json.createObject();
+            counts.put("ok", entry.getValue().ok);
+            counts.put("failed", entry.getValue().failed);
+            json.put(entry.getKey(), counts);
+        }
+        return json.toJson();
+    }
+
+    /**
+     * Starts sharing the observations with peers: periodically fetches the peers' local observations from their
+     * {@link FailoverNodeHealthServlet}.
+     * @param peerUrls the URLs of the other servers (do not include this server). Not null.
+     * @param healthPath the path of the {@link FailoverNodeHealthServlet}, appended to every peer URL. Not null.
+     * @param periodSeconds the period of the fetching.
+     */
+    public synchronized void startSharing(final List<String> peerUrls, final String healthPath, int periodSeconds) {
+        FailoverReconnectExtension.checkUrls(peerUrls);
+        if (healthPath == null) {
+            throw new IllegalArgumentException("Parameter healthPath: invalid value null: must not be null");
+        }
+        if (periodSeconds < 1) {
+            throw new IllegalArgumentException("Parameter periodSeconds: invalid value " + periodSeconds + ": must be 1 or greater");
+        }
+        stopSharing();
+        final List<String> urls = new ArrayList<>(peerUrls);
+        sharing = getExecutor().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (String peerUrl : urls) {
+                    final Map<String, Counts> observations = fetch(peerUrl + healthPath, nodeUrls);
+                    if (observations != null) {
+                        peers.put(peerUrl, observations);
+                    }
+                }
+            }
+        }, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops sharing the observations with peers and forgets the peers' observations.
+     */
+    public synchronized void stopSharing() {
+        if (sharing != null) {
+            sharing.cancel(false);
+            sharing = null;
+        }
+        peers.clear();
+    }
+
+    private static Map<String, Counts> fetch(String url, Set<String> nodeUrls) {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(2000);
+            connection.setReadTimeout(2000);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            final JsonValue json = Json.parse(new String(out.toByteArray(), StandardCharsets.UTF_8));
+            if (json.getType() != JsonType.OBJECT) {
+                return null;
+            }
+            final JsonObject object = (JsonObject) json;
+            final long now = System.currentTimeMillis();
+            final Map<String, Counts> result = new HashMap<>();
+            for (String key : object.keys()) {
+                final JsonValue value = object.get(key);
+                if (nodeUrls.contains(key) && value.getType() == JsonType.OBJECT) {
+                    final JsonObject jsonCounts = (JsonObject) value;
+                    final Counts counts = new Counts(getNumber(jsonCounts, "ok"), getNumber(jsonCounts, "failed"), now);
+                    if (!counts.isNegligible()) {
+                        result.put(key, counts);
+                    }
+                }
+            }
+            return result;
+        } catch (IOException | JsonException e) {
+            log.log(Level.FINE, "Failed to fetch node health from " + url, e);
+            return null;
+        }
+    }
+
+    private static double getNumber(JsonObject json, String key) {
+        final JsonValue value = json.get(key);
+        return value != null && value.getType() == JsonType.NUMBER ? Math.max(0, value.asNumber()) : 0;
+    }
+}
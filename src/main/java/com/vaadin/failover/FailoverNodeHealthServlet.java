@@ -0,0 +1,22 @@
+package com.vaadin.failover;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the node health observations reported to this server (see {@link FailoverNodeHealth#toJson()}) as JSON, so that the peers
+ * can combine them with their own, see {@link FailoverNodeHealth#startSharing(java.util.List, String, int)}. Only the local
+ * observations are served, so that the observations are not counted twice when shared in both directions.
+ * @author mavi
+ */
+public class FailoverNodeHealthServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("application/json; charset=utf-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.getWriter().print(FailoverNodeHealth.get().toJson());
+    }
+}
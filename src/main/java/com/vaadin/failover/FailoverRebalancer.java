@@ -0,0 +1,289 @@
+package com.vaadin.failover;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Gradually moves the users back once the primary server recovers. After a fail-over, all the load of the primary stays on the spares
+ * until the sessions expire, while the recovered primary sits nearly empty.
+ * <p>
+ * The rebalancer periodically compares the load of this server (the number of UIs with the {@link FailoverReconnectExtension}) with the
+ * load of the peers, as reported by their {@link FailoverLoadServlet}. If this server is overloaded compared to the least loaded peer,
+ * a rate-limited fraction of its idle UIs is asked to move there, see {@link FailoverReconnectExtension#migrateTo(String)}.
+ * The browser pings the peer first and only moves if the peer is alive.
+ * <p>
+ * Only the UIs with server push or polling enabled are moved: without those, the request would only reach the browser on its next
+ * round trip, which for an idle UI is the moment the user starts working again - and the user would be moved away mid-action,
+ * to a fresh session. The UIs without push and polling are skipped.
+ * There is one instance per web application, see {@link #get()}. The background thread is started on first use and stopped by
+ * {@link #shutdown()}, see {@link FailoverContextListener}.
+ * @author mavi
+ */
+public final class FailoverRebalancer {
+    private static final Logger log = Logger.getLogger(FailoverRebalancer.class.getName());
+
+    /**
+     * Decides whether a UI may be moved to another server.
+     */
+    public interface MigrationPolicy extends Serializable {
+        /**
+         * Checks whether the UI may be moved. Called with the session lock held.
+         * @param ui the UI, not null.
+         * @return true if the UI may be moved, false if e.g. the user has unsaved work.
+         */
+        boolean canMigrate(UI ui);
+    }
+
+    /**
+     * Allows to move UIs of sessions which had no request (other than heartbeat) for given amount of time. Note that the poll requests
+     * count as well: with polling enabled, the session is never idle for longer than the poll interval.
+     */
+    public static class IdleMigrationPolicy implements MigrationPolicy {
+        private final long idleMillis;
+
+        /**
+         * @param idleMillis the session must be idle at least this long.
+         */
+        public IdleMigrationPolicy(long idleMillis) {
+            this.idleMillis = idleMillis;
+        }
+
+        @Override
+        public boolean canMigrate(UI ui) {
+            final VaadinSession session = ui.getSession();
+            return session != null && System.currentTimeMillis() - session.getLastRequestTimestamp() >= idleMillis;
+        }
+    }
+
+    private static final FailoverRebalancer INSTANCE = new FailoverRebalancer();
+
+    /**
+     * Returns the rebalancer.
+     * @return the instance, not null.
+     */
+    public static FailoverRebalancer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs the rebalancing rounds; null until first needed.
+     */
+    private ScheduledExecutorService executor = null;
+    private ScheduledFuture<?> task = null;
+
+    private volatile List<String> peerUrls = Collections.emptyList();
+    private volatile String loadPath = null;
+    private volatile double overloadRatio = 1.5;
+    private volatile double maxFractionPerRound = 0.05;
+    private volatile MigrationPolicy policy = new IdleMigrationPolicy(TimeUnit.MINUTES.toMillis(1));
+
+    private FailoverRebalancer() {
+    }
+
+    /**
+     * Returns the load of this server: the number of attached UIs with the {@link FailoverReconnectExtension}.
+     * @return the load, 0 or greater.
+     */
+    public int getLoad() {
+        return FailoverReconnectExtension.ATTACHED.size();
+    }
+
+    /**
+     * This server is considered overloaded when its load exceeds the load of the least loaded peer by this ratio. Defaults to 1.5.
+     * @param overloadRatio the ratio, must be greater than 1.
+     */
+    public void setOverloadRatio(double overloadRatio) {
+        if (!(overloadRatio > 1)) {
+            throw new IllegalArgumentException("Parameter overloadRatio: invalid value " + overloadRatio + ": must be greater than 1");
+        }
+        this.overloadRatio = overloadRatio;
+    }
+
+    /**
+     * At most this fraction of UIs is moved per round. Defaults to 0.05.
+     * @param maxFractionPerRound the fraction, 0..1
+     */
+    public void setMaxFractionPerRound(double maxFractionPerRound) {
+        if (!(maxFractionPerRound > 0 && maxFractionPerRound <= 1)) {
+            throw new IllegalArgumentException("Parameter maxFractionPerRound: invalid value " + maxFractionPerRound + ": must be in 0..1");
+        }
+        this.maxFractionPerRound = maxFractionPerRound;
+    }
+
+    /**
+     * Decides which UIs may be moved. Defaults to UIs of sessions idle for at least a minute.
+     * @param policy the policy, not null.
+     */
+    public void setPolicy(MigrationPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Parameter policy: invalid value null: must not be null");
+        }
+        this.policy = policy;
+    }
+
+    /**
+     * Starts rebalancing periodically.
+     * @param peerUrls the URLs of the other servers (do not include this server), the same ones as passed to
+     *                 {@link FailoverReconnectExtension#setUrls(List)}. Not null.
+     * @param loadPath the path of the {@link FailoverLoadServlet}, appended to every peer URL. Not null.
+     * @param periodSeconds the period of the rebalancing rounds.
+     */
+    public synchronized void start(List<String> peerUrls, String loadPath, int periodSeconds) {
+        FailoverReconnectExtension.checkUrls(peerUrls);
+        if (loadPath == null) {
+            throw new IllegalArgumentException("Parameter loadPath: invalid value null: must not be null");
+        }
+        if (periodSeconds < 1) {
+            throw new IllegalArgumentException("Parameter periodSeconds: invalid value " + periodSeconds + ": must be 1 or greater");
+        }
+        stop();
+        this.peerUrls = Collections.unmodifiableList(new ArrayList<>(peerUrls));
+        this.loadPath = loadPath;
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "failover-rebalancer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        task = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebalance();
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Rebalancing failed", e);
+                }
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic rebalancing. Does nothing if not started.
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Stops the rebalancing and its background thread. Call when the web application is undeployed, so that the thread does not pin
+     * its class loader.
+     */
+    public synchronized void shutdown() {
+        stop();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Performs one rebalancing round.
+     */
+    void rebalance() {
+        final int load = getLoad();
+        String targetUrl = null;
+        int targetLoad = Integer.MAX_VALUE;
+        for (String peerUrl : peerUrls) {
+            final int peerLoad = fetchLoad(peerUrl + loadPath);
+            if (peerLoad >= 0 && peerLoad < targetLoad) {
+                targetLoad = peerLoad;
+                targetUrl = peerUrl;
+            }
+        }
+        if (targetUrl == null || load <= Math.max(1, targetLoad) * overloadRatio) {
+            return;
+        }
+        // move at most half of the difference, so that the loads meet in the middle rather than swap
+        final int toMove = Math.min((load - targetLoad) / 2, (int) Math.ceil(load * maxFractionPerRound));
+        log.info("Load " + load + " vs " + targetLoad + " at " + targetUrl + ": moving up to " + toMove + " UIs");
+        int moved = 0;
+        for (FailoverReconnectExtension extension : new ArrayList<>(FailoverReconnectExtension.ATTACHED)) {
+            if (moved >= toMove) {
+                break;
+            }
+            if (tryMigrate(extension, targetUrl)) {
+                moved++;
+            }
+        }
+    }
+
+    private boolean tryMigrate(final FailoverReconnectExtension extension, final String targetUrl) {
+        final UI ui = extension.getUI();
+        if (ui == null || ui.getSession() == null) {
+            return false;
+        }
+        final MigrationPolicy currentPolicy = policy;
+        final boolean[] migrated = new boolean[1];
+        try {
+            ui.accessSynchronously(new Runnable() {
+                @Override
+                public void run() {
+                    if (isReachable(ui) && currentPolicy.canMigrate(ui)) {
+                        extension.migrateTo(targetUrl);
+                        migrated[0] = true;
+                    }
+                }
+            });
+        } catch (UIDetachedException e) {
+            return false;
+        }
+        return migrated[0];
+    }
+
+    /**
+     * Checks whether the migration request reaches the browser promptly, rather than on the next user interaction.
+     * @param ui the UI, not null. Called with the session lock held.
+     * @return true if the UI has server push or polling enabled.
+     */
+    private static boolean isReachable(UI ui) {
+        return ui.getPushConfiguration().getPushMode().isEnabled() || ui.getPollInterval() > 0;
+    }
+
+    /**
+     * Fetches the load reported by the peer's {@link FailoverLoadServlet}.
+     * @return the load, -1 if the peer is down or did not respond properly.
+     */
+    private static int fetchLoad(String url) {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(2000);
+            connection.setReadTimeout(2000);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return -1;
+            }
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                final String line = in.readLine();
+                return line == null ? -1 : Integer.parseInt(line.trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.log(Level.FINE, "Failed to obtain load from " + url, e);
+            return -1;
+        }
+    }
+}
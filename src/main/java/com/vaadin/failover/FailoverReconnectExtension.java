@@ -1,15 +1,26 @@
 package com.vaadin.failover;
 
+import com.vaadin.failover.client.FailoverEndpoint;
 import com.vaadin.failover.client.FailoverReconnectClientRpc;
 import com.vaadin.failover.client.FailoverReconnectState;
+import com.vaadin.failover.client.LogLevel;
+import com.vaadin.navigator.Navigator;
+import com.vaadin.navigator.ViewChangeListener;
 import com.vaadin.server.AbstractExtension;
 import com.vaadin.server.VaadinRequest;
+import com.vaadin.shared.Registration;
 import com.vaadin.ui.Label;
 import com.vaadin.ui.UI;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The extension which handles the failover. To use this extension, perform the following steps:
@@ -21,9 +32,40 @@ import java.util.Objects;
  * </ul>
  * Once you include this widgetset, the standard Vaadin Reconnect dialog will be extended to also perform the FailOver logic.
  * Once the server crashes, the user will be able to press the "Try Spare Servers" button which will initiate the failover.
+ * <p>
+ * Alternatively, configure the URLs once per service via {@link FailoverBootstrapListener} and leave {@link #getUrls()} empty:
+ * the client will then take the configuration from the bootstrap page.
  * @author mavi
  */
 public class FailoverReconnectExtension extends AbstractExtension {
+    /**
+     * All extensions currently attached to a UI, across all sessions of this web application (the whole servlet context, since
+     * the set lives in the application's class loader). Used by the background services which push to the UIs:
+     * {@link FailoverRebalancer}, {@link FailoverNodeHealth}, {@link HandoffRefresher} and {@link FailoverEndpointProber}.
+     * <p>
+     * The extensions of a session restored from a replica or from the passivation storage never get {@link #attach()} called on this
+     * node; they re-register themselves when deserialized, see {@link #readObject(ObjectInputStream)}.
+     */
+    static final Set<FailoverReconnectExtension> ATTACHED = Collections.newSetFromMap(new ConcurrentHashMap<FailoverReconnectExtension, Boolean>());
+
+    /**
+     * True between {@link #attach()} and {@link #detach()}; serialized, so that a restored extension knows it should be in {@link #ATTACHED}.
+     */
+    private boolean registered = false;
+
+    /**
+     * The URLs of the endpoints in the state; readable without the session lock, see {@link #hasEndpointAmong(Collection)}.
+     */
+    private volatile List<String> endpointUrls = Collections.emptyList();
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (registered) {
+            // the session has been replicated or activated on this node; attach() is not called again.
+            ATTACHED.add(this);
+        }
+    }
+
     public void extend(UI ui) {
         super.extend(ui);
     }
@@ -34,6 +76,30 @@ public class FailoverReconnectExtension extends AbstractExtension {
         return extension;
     }
 
+    @Override
+    public void attach() {
+        super.attach();
+        registered = true;
+        ATTACHED.add(this);
+        updateSuspectUrls();
+        updateEndpointHealth();
+        if (handoff != null) {
+            refreshHandoffToken();
+        }
+    }
+
+    @Override
+    public void detach() {
+        registered = false;
+        ATTACHED.remove(this);
+        if (handoffViewChangeRegistration != null) {
+            handoffViewChangeRegistration.remove();
+            handoffViewChangeRegistration = null;
+        }
+        handoffNavigator = null;
+        super.detach();
+    }
+
     @Override
     protected FailoverReconnectState getState() {
         return (FailoverReconnectState) super.getState();
@@ -46,17 +112,77 @@ public class FailoverReconnectExtension extends AbstractExtension {
 
     /**
      * Sets the list of URLs to reconnect to. You can add all URLs here (including the main server URL). By default this list is empty.
+     * A shorthand for {@link #setEndpoints(List)} with the default probe settings for every URL.
      * @param urls the list of URLs, not null, may be empty. All URLs must start with http:// or https://
      */
     public void setUrls(List<String> urls) {
+        setEndpoints(toEndpoints(urls));
+    }
+
+    static List<FailoverEndpoint> toEndpoints(List<String> urls) {
+        checkUrls(urls);
+        final List<FailoverEndpoint> endpoints = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            endpoints.add(new FailoverEndpoint(url));
+        }
+        return endpoints;
+    }
+
+    /**
+     * Sets the nodes to reconnect to, each with its own probe settings, weight, zone and version. You can add all nodes here
+     * (including the main server). By default this list is empty.
+     * @param endpoints the nodes, not null, may be empty. Copied - further changes to the endpoints are not reflected.
+     */
+    public void setEndpoints(List<FailoverEndpoint> endpoints) {
+        final List<FailoverEndpoint> copy = checkEndpoints(endpoints);
+        getState().endpoints.clear();
+        getState().endpoints.addAll(copy);
+        final List<String> urls = new ArrayList<>(copy.size());
+        for (FailoverEndpoint endpoint : copy) {
+            urls.add(endpoint.url);
+        }
+        endpointUrls = Collections.unmodifiableList(urls);
+        FailoverNodeHealth.get().addNodes(copy);
+        updateEndpointHealth();
+    }
+
+    static List<FailoverEndpoint> checkEndpoints(List<FailoverEndpoint> endpoints) {
+        final List<FailoverEndpoint> copy = new ArrayList<>(endpoints.size());
+        for (FailoverEndpoint endpoint : endpoints) {
+            checkUrls(Collections.singletonList(endpoint.url));
+            if (endpoint.strategy == null) {
+                throw new IllegalArgumentException("Parameter endpoints: invalid value " + endpoint + ": the strategy must not be null");
+            }
+            if (endpoint.timeoutMillis < 0) {
+                throw new IllegalArgumentException("Parameter endpoints: invalid value " + endpoint + ": the timeoutMillis must be 0 or greater");
+            }
+            if (endpoint.weight < 0) {
+                throw new IllegalArgumentException("Parameter endpoints: invalid value " + endpoint + ": the weight must be 0 or greater");
+            }
+            copy.add(new FailoverEndpoint(endpoint));
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the nodes we will reconnect to.
+     * @return copies of the nodes, not null, initially empty.
+     */
+    public List<FailoverEndpoint> getEndpoints() {
+        final List<FailoverEndpoint> endpoints = new ArrayList<>();
+        for (FailoverEndpoint endpoint : getState(false).endpoints) {
+            endpoints.add(new FailoverEndpoint(endpoint));
+        }
+        return endpoints;
+    }
+
+    static void checkUrls(List<String> urls) {
         for (String url : urls) {
             if (!url.startsWith("http://") && !url.startsWith("https://")) {
                 // Chrome will complain regarding same origin policy if the URL has no proper prefix.
                 throw new IllegalArgumentException("Parameter urls: invalid value " + url + ": the URL must start either with http:// or https://");
             }
         }
-        getState().urls.clear();
-        getState().urls.addAll(urls);
     }
 
     /**
@@ -64,7 +190,11 @@ public class FailoverReconnectExtension extends AbstractExtension {
      * @return the list of URLs, not null, initially empty.
      */
     public List<String> getUrls() {
-        return new ArrayList<>(getState(false).urls);
+        final List<String> urls = new ArrayList<>();
+        for (FailoverEndpoint endpoint : getState(false).endpoints) {
+            urls.add(endpoint.url);
+        }
+        return urls;
     }
 
     /**
@@ -90,6 +220,16 @@ public class FailoverReconnectExtension extends AbstractExtension {
         getRpcProxy(FailoverReconnectClientRpc.class).cancelFailOver();
     }
 
+    /**
+     * Asks the browser to move to given server. The browser pings the server first and only moves if the server is alive.
+     * Used by {@link FailoverRebalancer}; the request reaches the browser on the next round trip (or immediately when server push is enabled).
+     * @param url the URL to move to, must start with http:// or https://
+     */
+    public void migrateTo(String url) {
+        checkUrls(Collections.singletonList(url));
+        getRpcProxy(FailoverReconnectClientRpc.class).migrateTo(url);
+    }
+
     /**
      * If true, then during the reconnecting phase, {@link #getUrls()} are pulled in random order. If false, {@link #getUrls()} are pulled
      * in exactly the same order as they appear in the {@link #getUrls()} list.
@@ -197,4 +337,371 @@ public class FailoverReconnectExtension extends AbstractExtension {
     public void setPingImagePath(String pingImagePath) {
         getState().pingImagePath = pingImagePath;
     }
+
+    /**
+     * If not null, the client records the timings of every fail-over incident and sends them to this path of the server the browser
+     * is redirected to. The path is simply appended to the URL; map the {@link FailoverTelemetryServlet} there.
+     * @return the path, e.g. "/failover-telemetry"; null by default which disables the telemetry.
+     */
+    public String getTelemetryPath() {
+        return getState(false).telemetryPath;
+    }
+
+    /**
+     * If not null, the client records the timings of every fail-over incident and sends them to this path of the server the browser
+     * is redirected to. The path is simply appended to the URL; map the {@link FailoverTelemetryServlet} there.
+     * @param telemetryPath the path, e.g. "/failover-telemetry"; null by default which disables the telemetry.
+     */
+    public void setTelemetryPath(String telemetryPath) {
+        getState().telemetryPath = telemetryPath;
+    }
+
+    /**
+     * Client-side log messages below this level are dropped at no cost; the remaining ones are kept in a ring buffer which is
+     * attached to the telemetry record and can be dumped by calling <code>vaadinFailoverDumpLog()</code> in the browser console.
+     * @return the log level, not null. Defaults to {@link LogLevel#INFO}.
+     */
+    public LogLevel getLogLevel() {
+        return getState(false).logLevel;
+    }
+
+    /**
+     * Client-side log messages below this level are dropped at no cost; the remaining ones are kept in a ring buffer which is
+     * attached to the telemetry record and can be dumped by calling <code>vaadinFailoverDumpLog()</code> in the browser console.
+     * @param logLevel the log level, not null. Defaults to {@link LogLevel#INFO}.
+     */
+    public void setLogLevel(LogLevel logLevel) {
+        Objects.requireNonNull(logLevel);
+        getState().logLevel = logLevel;
+    }
+
+    /**
+     * If true (the default), the client-side log messages which pass {@link #getLogLevel()} are also written to the browser console.
+     * @return true if logging to the browser console.
+     */
+    public boolean isLogToConsole() {
+        return getState(false).logToConsole;
+    }
+
+    /**
+     * If true (the default), the client-side log messages which pass {@link #getLogLevel()} are also written to the browser console.
+     * @param logToConsole true if logging to the browser console.
+     */
+    public void setLogToConsole(boolean logToConsole) {
+        getState().logToConsole = logToConsole;
+    }
+
+    /**
+     * If true, on the first visit the browser probes all {@link #getUrls()} in parallel and moves to another node if it is clearly
+     * better in terms of round-trip time and reported load (see {@link #setLoadPath(String)}). The choice is remembered in the browser's
+     * local storage, so that later visits skip the probing. False by default.
+     * @return true if the initial node selection is enabled.
+     */
+    public boolean isInitialNodeSelection() {
+        return getState(false).initialNodeSelection;
+    }
+
+    /**
+     * If true, on the first visit the browser probes all {@link #getUrls()} in parallel and moves to another node if it is clearly
+     * better in terms of round-trip time and reported load (see {@link #setLoadPath(String)}). The choice is remembered in the browser's
+     * local storage, so that later visits skip the probing. False by default.
+     * <p>
+     * The selection runs in the browser after the first UIDL response, so the session and the UI created on this node are abandoned when
+     * the browser moves away; they expire with the session timeout. Enable the selection via
+     * {@link FailoverBootstrapListener#setInitialNodeSelection(boolean)} instead to run it before the UI is created. The current node
+     * is recognized by matching the page URL against {@link #getUrls()}, including the context path; if this node is not listed,
+     * no selection is made.
+     * @param initialNodeSelection true to enable the initial node selection.
+     */
+    public void setInitialNodeSelection(boolean initialNodeSelection) {
+        getState().initialNodeSelection = initialNodeSelection;
+    }
+
+    /**
+     * The time budget for probing the nodes when {@link #isInitialNodeSelection()} is enabled.
+     * @return the budget in milliseconds; the default is 1 second.
+     */
+    public int getInitialNodeSelectionBudgetMillis() {
+        return getState(false).initialNodeSelectionBudgetMillis;
+    }
+
+    /**
+     * The time budget for probing the nodes when {@link #isInitialNodeSelection()} is enabled.
+     * @param initialNodeSelectionBudgetMillis the budget in milliseconds; the default is 1 second. Must be greater than 0.
+     */
+    public void setInitialNodeSelectionBudgetMillis(int initialNodeSelectionBudgetMillis) {
+        if (initialNodeSelectionBudgetMillis <= 0) {
+            throw new IllegalArgumentException("Parameter initialNodeSelectionBudgetMillis: invalid value " + initialNodeSelectionBudgetMillis + ": must be greater than 0");
+        }
+        getState().initialNodeSelectionBudgetMillis = initialNodeSelectionBudgetMillis;
+    }
+
+    /**
+     * If not null, the initial node selection probes this path of every URL and reads the node load from the response. Map the
+     * {@link FailoverLoadServlet} there. If null, the nodes are probed via the ping path and only the round-trip time is compared.
+     * @return the path, e.g. "/failover-load"; null by default.
+     */
+    public String getLoadPath() {
+        return getState(false).loadPath;
+    }
+
+    /**
+     * If not null, the initial node selection probes this path of every URL and reads the node load from the response. Map the
+     * {@link FailoverLoadServlet} there. If null, the nodes are probed via the ping path and only the round-trip time is compared.
+     * @param loadPath the path, e.g. "/failover-load"; null by default.
+     */
+    public void setLoadPath(String loadPath) {
+        getState().loadPath = loadPath;
+    }
+
+    /**
+     * If not 0, the fail-over probes are sent to this port of every URL instead of the URL itself. Run the
+     * {@link FailoverHealthResponder} on that port on all servers, so that the probes are answered even when the servlet container
+     * is saturated. The scheme and host of the URL are kept; the responder must therefore use the same scheme as the application.
+     * @return the port, 0 by default.
+     */
+    public int getHealthPort() {
+        return getState(false).healthPort;
+    }
+
+    /**
+     * If not 0, the fail-over probes are sent to this port of every URL instead of the URL itself. Run the
+     * {@link FailoverHealthResponder} on that port on all servers, so that the probes are answered even when the servlet container
+     * is saturated. The scheme and host of the URL are kept; the responder must therefore use the same scheme as the application.
+     * @param healthPort the port, 0..65535; 0 by default.
+     */
+    public void setHealthPort(int healthPort) {
+        if (healthPort < 0 || healthPort > 65535) {
+            throw new IllegalArgumentException("Parameter healthPort: invalid value " + healthPort + ": must be 0..65535");
+        }
+        getState().healthPort = healthPort;
+    }
+
+    /**
+     * If true, the browser keeps a pre-initialized UI on one spare while this server is healthy, in a hidden iframe kept alive every
+     * {@link #getHotStandbyKeepaliveMillis()}. The fail-over then reuses that UI, which cuts the recovery to roughly one round trip.
+     * The UI class must be annotated with <code>@PreserveOnRefresh</code>, the spares should run the {@link FailoverStandbyFilter}
+     * to bound the number of standby sessions, and the spares must be same-site with this server (the browsers do not share
+     * cross-site iframe cookies with the top-level page). Enable the handoff (see
+     * {@link #setHandoff(FailoverHandoff, FailoverHandoff.Provider)}) to have the standby UI pre-authenticated.
+     * @return true if enabled, false by default.
+     */
+    public boolean isHotStandby() {
+        return getState(false).hotStandby;
+    }
+
+    /**
+     * If true, the browser keeps a pre-initialized UI on one spare while this server is healthy, in a hidden iframe kept alive every
+     * {@link #getHotStandbyKeepaliveMillis()}. The fail-over then reuses that UI, which cuts the recovery to roughly one round trip.
+     * The UI class must be annotated with <code>@PreserveOnRefresh</code>, the spares should run the {@link FailoverStandbyFilter}
+     * to bound the number of standby sessions, and the spares must be same-site with this server (the browsers do not share
+     * cross-site iframe cookies with the top-level page). Enable the handoff (see
+     * {@link #setHandoff(FailoverHandoff, FailoverHandoff.Provider)}) to have the standby UI pre-authenticated.
+     * @param hotStandby true to enable, false by default.
+     */
+    public void setHotStandby(boolean hotStandby) {
+        getState().hotStandby = hotStandby;
+    }
+
+    /**
+     * How often the page asks the standby UI to send a heartbeat to the spare, which keeps the spare session alive. Every open tab costs
+     * the spare one standby session and UI, plus one small heartbeat request per this period; the iframe itself is only loaded once.
+     * Keep the period well below the standby session timeout of the {@link FailoverStandbyFilter}.
+     * @return the period in milliseconds, defaults to 2 minutes.
+     */
+    public int getHotStandbyKeepaliveMillis() {
+        return getState(false).hotStandbyKeepaliveMillis;
+    }
+
+    /**
+     * How often the page asks the standby UI to send a heartbeat to the spare, which keeps the spare session alive. Every open tab costs
+     * the spare one standby session and UI, plus one small heartbeat request per this period; the iframe itself is only loaded once.
+     * Keep the period well below the standby session timeout of the {@link FailoverStandbyFilter}.
+     * @param hotStandbyKeepaliveMillis the period in milliseconds, must be greater than 0. Defaults to 2 minutes.
+     */
+    public void setHotStandbyKeepaliveMillis(int hotStandbyKeepaliveMillis) {
+        if (hotStandbyKeepaliveMillis <= 0) {
+            throw new IllegalArgumentException("Parameter hotStandbyKeepaliveMillis: invalid value " + hotStandbyKeepaliveMillis + ": must be greater than 0");
+        }
+        getState().hotStandbyKeepaliveMillis = hotStandbyKeepaliveMillis;
+    }
+
+    /**
+     * If true, the browser does not reload the page when failing over; instead, it starts a fresh UI on the spare and renders it into
+     * the current page, keeping the already loaded widgetset. Only for clusters where all nodes run the same version of the application.
+     * The spares must allow credentialed CORS requests from the primary, see {@link FailoverCorsFilter}. Since the page URL stays
+     * the same, reloading the page after the fail-over loads the page from the primary.
+     * Nodes running another {@link FailoverEndpoint#version} than the current node are always redirected to.
+     * @return true if enabled, false by default.
+     */
+    public boolean isInPlaceReattach() {
+        return getState(false).inPlaceReattach;
+    }
+
+    /**
+     * If true, the browser does not reload the page when failing over; instead, it starts a fresh UI on the spare and renders it into
+     * the current page, keeping the already loaded widgetset. Only for clusters where all nodes run the same version of the application.
+     * The spares must allow credentialed CORS requests from the primary, see {@link FailoverCorsFilter}. Since the page URL stays
+     * the same, reloading the page after the fail-over loads the page from the primary.
+     * Nodes running another {@link FailoverEndpoint#version} than the current node are always redirected to.
+     * @param inPlaceReattach true to enable, false by default.
+     */
+    public void setInPlaceReattach(boolean inPlaceReattach) {
+        getState().inPlaceReattach = inPlaceReattach;
+    }
+
+    /**
+     * If true, the probes and the back-off delays run in a Web Worker. Browsers throttle the timers of background tabs (down to once
+     * per minute), which slows down the fail-over of a background tab to minutes; the worker is not throttled like that. Falls back to
+     * probing in the page when the browser does not support workers, or when the Content Security Policy does not allow
+     * <code>worker-src blob:</code>. With the Image ping, the worker can not detect <code>503</code> unless the
+     * {@link #setHealthPort(int) health responder} is used.
+     * @return true if enabled, false by default.
+     */
+    public boolean isWorkerProbing() {
+        return getState(false).workerProbing;
+    }
+
+    /**
+     * If true, the probes and the back-off delays run in a Web Worker. Browsers throttle the timers of background tabs (down to once
+     * per minute), which slows down the fail-over of a background tab to minutes; the worker is not throttled like that. Falls back to
+     * probing in the page when the browser does not support workers, or when the Content Security Policy does not allow
+     * <code>worker-src blob:</code>. With the Image ping, the worker can not detect <code>503</code> unless the
+     * {@link #setHealthPort(int) health responder} is used.
+     * @param workerProbing true to enable, false by default.
+     */
+    public void setWorkerProbing(boolean workerProbing) {
+        getState().workerProbing = workerProbing;
+    }
+
+    private volatile FailoverHandoff handoff = null;
+    private FailoverHandoff.Provider handoffProvider = null;
+    /**
+     * When the current handoff token has been issued.
+     */
+    private volatile long handoffTokenIssuedAt = 0;
+    /**
+     * True while {@link HandoffRefresher} waits for the UI lock to refresh the token.
+     */
+    private volatile boolean handoffRefreshPending = false;
+    /**
+     * The navigator {@link #handoffViewChangeListener} is registered to, null if none.
+     */
+    private Navigator handoffNavigator = null;
+    /**
+     * Removes {@link #handoffViewChangeListener} from {@link #handoffNavigator}, null if not registered.
+     */
+    private Registration handoffViewChangeRegistration = null;
+    private final ViewChangeListener handoffViewChangeListener = new ViewChangeListener() {
+        @Override
+        public boolean beforeViewChange(ViewChangeEvent event) {
+            return true;
+        }
+
+        @Override
+        public void afterViewChange(ViewChangeEvent event) {
+            refreshHandoffToken();
+        }
+    };
+
+    /**
+     * Enables the handoff: the user identity and navigation state captured by the provider travel with the fail-over redirect
+     * in an encrypted token, so that the spare server can restore the session without a fresh login, see {@link FailoverHandoff}.
+     * <p>
+     * The token is refreshed immediately, after every Navigator view change, and in the background whenever it is older than
+     * {@link FailoverHandoff#getRefreshMillis()}; call {@link #refreshHandoffToken()} after logging in or out. The background refresh
+     * only reaches the browser with server push or polling (with the poll interval shorter than the refresh period); without them,
+     * the token reaches the browser only with the user's next interaction and the spare rejects the token of a user who has been
+     * idle for longer than {@link FailoverHandoff#getMaxAgeMillis()}.
+     * @param handoff the handoff with the shared key, not null.
+     * @param provider captures the UI state, not null.
+     */
+    public void setHandoff(FailoverHandoff handoff, FailoverHandoff.Provider provider) {
+        Objects.requireNonNull(handoff);
+        Objects.requireNonNull(provider);
+        this.handoff = handoff;
+        this.handoffProvider = provider;
+        HandoffRefresher.get().start();
+        refreshHandoffToken();
+    }
+
+    /**
+     * Checks whether the handoff token should be refreshed in the background, see {@link HandoffRefresher}.
+     * @param now the current time in milliseconds.
+     * @return true if the handoff is enabled, the token is older than {@link FailoverHandoff#getRefreshMillis()} and no refresh is pending.
+     */
+    boolean isHandoffTokenStale(long now) {
+        final FailoverHandoff h = handoff;
+        return h != null && !handoffRefreshPending && now - handoffTokenIssuedAt >= h.getRefreshMillis();
+    }
+
+    void setHandoffRefreshPending(boolean handoffRefreshPending) {
+        this.handoffRefreshPending = handoffRefreshPending;
+    }
+
+    /**
+     * Registers {@link #handoffViewChangeListener} to the UI's navigator. Called on every refresh since the navigator is typically
+     * created after the extension.
+     */
+    private void registerHandoffViewChangeListener() {
+        final Navigator navigator = getUI().getNavigator();
+        if (navigator == handoffNavigator) {
+            return;
+        }
+        if (handoffViewChangeRegistration != null) {
+            handoffViewChangeRegistration.remove();
+            handoffViewChangeRegistration = null;
+        }
+        if (navigator != null) {
+            handoffViewChangeRegistration = navigator.addViewChangeListener(handoffViewChangeListener);
+        }
+        handoffNavigator = navigator;
+    }
+
+    /**
+     * Sends the nodes currently suspected to be dead to the client, see {@link FailoverNodeHealth}.
+     */
+    void updateSuspectUrls() {
+        final List<String> suspects = FailoverNodeHealth.get().getCachedSuspectUrls();
+        if (!suspects.equals(getState(false).suspectUrls)) {
+            getState().suspectUrls.clear();
+            getState().suspectUrls.addAll(suspects);
+        }
+    }
+
+    /**
+     * Checks whether this extension lists any of given nodes. May be called without holding the session lock.
+     * @param urls the URLs of the nodes, not null.
+     * @return true if any of the URLs is among {@link #getUrls()}.
+     */
+    boolean hasEndpointAmong(Collection<String> urls) {
+        return !Collections.disjoint(endpointUrls, urls);
+    }
+
+    /**
+     * Sends the outcome of the server-side probes to the client, see {@link FailoverEndpointProber}.
+     */
+    void updateEndpointHealth() {
+        final List<FailoverEndpoint> endpoints = getState(false).endpoints;
+        for (int i = 0; i < endpoints.size(); i++) {
+            final Boolean healthy = FailoverEndpointProber.get().getHealth(endpoints.get(i).url);
+            if (!Objects.equals(healthy, endpoints.get(i).healthy)) {
+                getState().endpoints.get(i).healthy = healthy;
+            }
+        }
+    }
+
+    /**
+     * Captures the UI state and sends a fresh handoff token to the client. Does nothing if the handoff is not enabled,
+     * see {@link #setHandoff(FailoverHandoff, FailoverHandoff.Provider)}.
+     */
+    public void refreshHandoffToken() {
+        if (handoff == null || getUI() == null) {
+            return;
+        }
+        registerHandoffViewChangeListener();
+        final HandoffState state = handoffProvider.capture(getUI());
+        getState().handoffToken = state == null ? null : handoff.encode(state);
+        handoffTokenIssuedAt = System.currentTimeMillis();
+    }
 }
@@ -0,0 +1,220 @@
+package com.vaadin.failover;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import javax.servlet.http.HttpSessionEvent;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the memory the hot-standby UIs take on a spare, see {@link FailoverReconnectExtension#setHotStandby(boolean)}. Map this filter
+ * in front of the Vaadin servlet on the spares.
+ * <p>
+ * A session created by a standby request (marked with the {@value #PARAMETER} parameter) is a standby session: it gets a short timeout,
+ * so that it expires soon after the user closes the primary page, and it counts towards <code>maxSessions</code>. Once the limit is
+ * reached, new standby requests are rejected with <code>503 Service Unavailable</code>; the user then simply fails over the regular way.
+ * When the user actually fails over to the standby UI (a page request without the parameter arrives in the standby session), the session
+ * becomes a regular one and gets its original timeout back.
+ * <p>
+ * Init parameters:
+ * <ul>
+ *     <li><code>maxSessions</code> - the max number of standby sessions; defaults to 1000</li>
+ *     <li><code>timeoutSeconds</code> - the timeout of the standby sessions; defaults to 300. Should be well above the keepalive period,
+ *     see {@link FailoverReconnectExtension#setHotStandbyKeepaliveMillis(int)}</li>
+ * </ul>
+ * @author mavi
+ */
+public class FailoverStandbyFilter implements Filter {
+    /**
+     * Marks the requests of the standby UI.
+     */
+    public static final String PARAMETER = "failover-standby";
+
+    /**
+     * The session attribute marking the standby sessions.
+     */
+    private static final String ATTRIBUTE = FailoverStandbyFilter.class.getName() + ".standby";
+
+    private static final AtomicInteger standbySessions = new AtomicInteger();
+
+    /**
+     * Marks a standby session; keeps {@link #standbySessions} up-to-date as the session expires or becomes a regular one.
+     * <p>
+     * Only a marker counted on this server is discounted: a copy replicated from another server (or restored after a restart) arrives
+     * with {@link #counted} false, since the flag is transient. A session passivated by the container is discounted and counted again
+     * when activated.
+     */
+    private static final class StandbyMarker implements HttpSessionBindingListener, HttpSessionActivationListener, Serializable {
+        /**
+         * The timeout the session had before it became a standby session, in seconds.
+         */
+        final int originalTimeoutSeconds;
+        /**
+         * True if this marker is included in {@link #standbySessions} of this server.
+         */
+        private transient boolean counted;
+
+        StandbyMarker(int originalTimeoutSeconds) {
+            this.originalTimeoutSeconds = originalTimeoutSeconds;
+            counted = true;
+        }
+
+        @Override
+        public void valueBound(HttpSessionBindingEvent event) {
+        }
+
+        @Override
+        public synchronized void valueUnbound(HttpSessionBindingEvent event) {
+            discount();
+        }
+
+        @Override
+        public synchronized void sessionWillPassivate(HttpSessionEvent se) {
+            discount();
+        }
+
+        @Override
+        public synchronized void sessionDidActivate(HttpSessionEvent se) {
+            if (!counted) {
+                standbySessions.incrementAndGet();
+                counted = true;
+            }
+        }
+
+        private void discount() {
+            if (counted) {
+                counted = false;
+                decrementStandbySessions();
+            }
+        }
+    }
+
+    /**
+     * Decrements {@link #standbySessions}, never below zero.
+     */
+    private static void decrementStandbySessions() {
+        while (true) {
+            final int current = standbySessions.get();
+            if (current <= 0 || standbySessions.compareAndSet(current, current - 1)) {
+                return;
+            }
+        }
+    }
+
+    private int maxSessions = 1000;
+    private int timeoutSeconds = 300;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        maxSessions = getInt(filterConfig, "maxSessions", maxSessions);
+        timeoutSeconds = getInt(filterConfig, "timeoutSeconds", timeoutSeconds);
+    }
+
+    private static int getInt(FilterConfig config, String name, int defaultValue) throws ServletException {
+        final String value = config.getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Init parameter " + name + ": invalid value " + value + ": must be a number", e);
+        }
+    }
+
+    /**
+     * @return the current number of standby sessions on this server.
+     */
+    public static int getStandbySessions() {
+        return standbySessions.get();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final HttpServletRequest req = (HttpServletRequest) request;
+        final HttpSession existing = req.getSession(false);
+        if (req.getParameter(PARAMETER) == null) {
+            if (existing != null && isPageRequest(req)) {
+                final StandbyMarker marker = getMarker(existing);
+                if (marker != null) {
+                    // the user has failed over to the standby UI
+                    existing.setMaxInactiveInterval(marker.originalTimeoutSeconds);
+                    existing.removeAttribute(ATTRIBUTE);
+                }
+            }
+            chain.doFilter(request, response);
+            return;
+        }
+        if (existing != null) {
+            // a reload of an existing standby UI, or the user already has a regular session here
+            chain.doFilter(request, response);
+            return;
+        }
+        if (standbySessions.incrementAndGet() > maxSessions) {
+            decrementStandbySessions();
+            final HttpServletResponse resp = (HttpServletResponse) response;
+            resp.setHeader("Cache-Control", "no-cache");
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        boolean marked = false;
+        try {
+            chain.doFilter(request, response);
+            marked = markStandby(req.getSession(false));
+        } finally {
+            if (!marked) {
+                decrementStandbySessions();
+            }
+        }
+    }
+
+    private boolean markStandby(HttpSession session) {
+        if (session == null) {
+            return false;
+        }
+        try {
+            if (session.getAttribute(ATTRIBUTE) != null) {
+                return false;
+            }
+            final StandbyMarker marker = new StandbyMarker(session.getMaxInactiveInterval());
+            session.setMaxInactiveInterval(timeoutSeconds);
+            session.setAttribute(ATTRIBUTE, marker);
+            return true;
+        } catch (IllegalStateException e) {
+            // the session has been invalidated meanwhile
+            return false;
+        }
+    }
+
+    private static StandbyMarker getMarker(HttpSession session) {
+        try {
+            return (StandbyMarker) session.getAttribute(ATTRIBUTE);
+        } catch (IllegalStateException e) {
+            // invalidated session
+            return null;
+        }
+    }
+
+    /**
+     * The page load differs from the Vaadin requests (UIDL, heartbeat) of the standby iframe, which are POSTs.
+     */
+    private static boolean isPageRequest(HttpServletRequest req) {
+        final String accept = req.getHeader("Accept");
+        return "GET".equals(req.getMethod()) && accept != null && accept.contains("text/html");
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,298 @@
+package com.vaadin.failover;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects a surge of fail-over arrivals, giving this server a couple of seconds of warning before the whole user base of a crashed
+ * primary lands here. The browsers mark the fail-over redirect with the {@value #ARRIVAL_PARAMETER} parameter; the
+ * {@link FailoverSurgeFilter} counts those arrivals and the new sessions into lock-free sliding-window counters.
+ * <p>
+ * Every second, the rates are compared with the thresholds: when either rate reaches its threshold, a surge starts and the
+ * {@link SurgeHook}s are notified; the surge ends when both rates fall below half of their thresholds. There is one instance per web
+ * application, see {@link #get()}; while the {@link FailoverSurgeFilter} is in service, the instance is registered in the platform
+ * MBean server as {@value #OBJECT_NAME}. The background thread is started by the first recorded event and stopped by
+ * {@link #shutdown()}, see {@link FailoverContextListener}.
+ * @author mavi
+ */
+public final class FailoverSurge implements FailoverSurgeMBean {
+    /**
+     * The JMX name of the surge MBean.
+     */
+    public static final String OBJECT_NAME = "com.vaadin.failover:type=FailoverSurge";
+
+    /**
+     * The URL parameter with which the browsers mark the arrivals.
+     */
+    public static final String ARRIVAL_PARAMETER = "failover-arrival";
+
+    /**
+     * The {@link #ARRIVAL_PARAMETER} value marking the fail-over arrivals. Other values (e.g. the migrations requested by the
+     * {@link FailoverRebalancer}) are not counted.
+     */
+    public static final String ARRIVAL_FAILOVER = "failover";
+
+    private static final Logger log = Logger.getLogger(FailoverSurge.class.getName());
+
+    private static final FailoverSurge INSTANCE = new FailoverSurge();
+
+    /**
+     * Returns the surge detector.
+     * @return the instance, not null.
+     */
+    public static FailoverSurge get() {
+        return INSTANCE;
+    }
+
+    private final RateCounter arrivalRate = new RateCounter();
+    private final RateCounter sessionRate = new RateCounter();
+    private final AtomicLong arrivals = new AtomicLong();
+    private final AtomicLong sessions = new AtomicLong();
+    private final AtomicLong surges = new AtomicLong();
+    private final CopyOnWriteArrayList<SurgeHook> hooks = new CopyOnWriteArrayList<>();
+    private volatile double arrivalsPerSecondThreshold = 10;
+    private volatile double sessionsPerSecondThreshold = 50;
+    private volatile int windowSeconds = 5;
+    /**
+     * Only accessed from the executor thread, apart from the JMX reads.
+     */
+    private volatile boolean surge = false;
+
+    private volatile ScheduledExecutorService executor = null;
+    /**
+     * True if this instance is registered in the platform MBean server.
+     */
+    private boolean registered = false;
+
+    private FailoverSurge() {
+    }
+
+    /**
+     * Starts the periodic check of the rates. Does nothing if already started.
+     */
+    private synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "failover-surge");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Surge check failed", e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the background thread. A later event starts it again.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Registers this instance in the platform MBean server. Called by {@link FailoverSurgeFilter#init(javax.servlet.FilterConfig)}.
+     */
+    synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                registered = true;
+            }
+        } catch (JMException | SecurityException e) {
+            // most probably another web application already registered its own detector.
+            log.log(Level.WARNING, "Failed to register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Unregisters this instance from the platform MBean server, so that the MBean does not outlive the web application (and pin
+     * its class loader) on redeploy. Called by {@link FailoverSurgeFilter#destroy()}.
+     */
+    synchronized void unregisterMBean() {
+        if (!registered) {
+            return;
+        }
+        registered = false;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            log.log(Level.WARNING, "Failed to unregister " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Adds a hook notified when a surge starts and ends.
+     * @param hook the hook, not null.
+     */
+    public void addHook(SurgeHook hook) {
+        if (hook == null) {
+            throw new IllegalArgumentException("Parameter hook: invalid value null: must not be null");
+        }
+        hooks.add(hook);
+    }
+
+    public void removeHook(SurgeHook hook) {
+        hooks.remove(hook);
+    }
+
+    /**
+     * Records a fail-over arrival. Only count the arrivals which create a session: a reload or a bookmark of a URL which still carries
+     * the {@value #ARRIVAL_PARAMETER} parameter is not a fail-over.
+     */
+    public void onArrival() {
+        if (executor == null) {
+            start();
+        }
+        arrivals.incrementAndGet();
+        arrivalRate.record();
+    }
+
+    /**
+     * Records a new session.
+     */
+    public void onNewSession() {
+        if (executor == null) {
+            start();
+        }
+        sessions.incrementAndGet();
+        sessionRate.record();
+    }
+
+    private void check() {
+        final double arrivalsPerSecond = getArrivalsPerSecond();
+        final double sessionsPerSecond = getSessionsPerSecond();
+        if (!surge && (arrivalsPerSecond >= arrivalsPerSecondThreshold || sessionsPerSecond >= sessionsPerSecondThreshold)) {
+            surge = true;
+            surges.incrementAndGet();
+            log.warning("Fail-over surge: " + arrivalsPerSecond + " arrivals/s, " + sessionsPerSecond + " new sessions/s");
+            for (SurgeHook hook : hooks) {
+                try {
+                    hook.onSurgeStarted(arrivalsPerSecond, sessionsPerSecond);
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Surge hook " + hook + " failed", e);
+                }
+            }
+        } else if (surge && arrivalsPerSecond < arrivalsPerSecondThreshold / 2 && sessionsPerSecond < sessionsPerSecondThreshold / 2) {
+            surge = false;
+            log.info("Fail-over surge is over");
+            for (SurgeHook hook : hooks) {
+                try {
+                    hook.onSurgeEnded();
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Surge hook " + hook + " failed", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public double getArrivalsPerSecond() {
+        return arrivalRate.getRate(windowSeconds);
+    }
+
+    @Override
+    public double getSessionsPerSecond() {
+        return sessionRate.getRate(windowSeconds);
+    }
+
+    @Override
+    public boolean isSurge() {
+        return surge;
+    }
+
+    @Override
+    public long getSurges() {
+        return surges.get();
+    }
+
+    @Override
+    public long getArrivals() {
+        return arrivals.get();
+    }
+
+    @Override
+    public long getSessions() {
+        return sessions.get();
+    }
+
+    @Override
+    public double getArrivalsPerSecondThreshold() {
+        return arrivalsPerSecondThreshold;
+    }
+
+    /**
+     * A surge starts when the fail-over arrival rate reaches this threshold. Defaults to 10 per second.
+     * @param arrivalsPerSecondThreshold the threshold, must be greater than 0.
+     */
+    @Override
+    public void setArrivalsPerSecondThreshold(double arrivalsPerSecondThreshold) {
+        if (!(arrivalsPerSecondThreshold > 0)) {
+            throw new IllegalArgumentException("Parameter arrivalsPerSecondThreshold: invalid value " + arrivalsPerSecondThreshold + ": must be greater than 0");
+        }
+        this.arrivalsPerSecondThreshold = arrivalsPerSecondThreshold;
+    }
+
+    @Override
+    public double getSessionsPerSecondThreshold() {
+        return sessionsPerSecondThreshold;
+    }
+
+    /**
+     * A surge starts when the new-session rate reaches this threshold. Defaults to 50 per second.
+     * @param sessionsPerSecondThreshold the threshold, must be greater than 0.
+     */
+    @Override
+    public void setSessionsPerSecondThreshold(double sessionsPerSecondThreshold) {
+        if (!(sessionsPerSecondThreshold > 0)) {
+            throw new IllegalArgumentException("Parameter sessionsPerSecondThreshold: invalid value " + sessionsPerSecondThreshold + ": must be greater than 0");
+        }
+        this.sessionsPerSecondThreshold = sessionsPerSecondThreshold;
+    }
+
+    @Override
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    /**
+     * The rates are averaged over this many past seconds. Shorter windows react faster, longer windows are less jumpy. Defaults to 5.
+     * @param windowSeconds the window, 1..{@value RateCounter#MAX_WINDOW_SECONDS}.
+     */
+    @Override
+    public void setWindowSeconds(int windowSeconds) {
+        if (windowSeconds < 1 || windowSeconds > RateCounter.MAX_WINDOW_SECONDS) {
+            throw new IllegalArgumentException("Parameter windowSeconds: invalid value " + windowSeconds + ": must be 1.." + RateCounter.MAX_WINDOW_SECONDS);
+        }
+        this.windowSeconds = windowSeconds;
+    }
+}
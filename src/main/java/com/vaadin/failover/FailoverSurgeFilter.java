@@ -0,0 +1,135 @@
+package com.vaadin.failover;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Counts the fail-over arrivals and the new sessions for the {@link FailoverSurge} detector. Map this filter in front of the Vaadin
+ * servlet. Only the query string is inspected (the request body is left alone), so the filter is cheap enough for every request.
+ * A request marked as a fail-over arrival is only counted as such when it also creates a new session; a reload (or a bookmark) of
+ * a URL which still carries the marker is not an arrival. The sessions which are not user arrivals are not counted at all: the hot
+ * standby sessions (the {@value FailoverStandbyFilter#PARAMETER} parameter) and the local warm-up requests (see
+ * {@link HttpWarmupTask#WARMUP_HEADER}). A fail-over arrival also confirms the incident record its browser has sent, see
+ * {@link FailoverTelemetry}; without this filter the browsers' probes never reach the {@link FailoverNodeHealth}. The filter also
+ * registers the {@link FailoverSurge} MBean for the time it is in service.
+ * <p>
+ * Init parameters (all optional, see {@link FailoverSurge} for the defaults):
+ * <ul>
+ *     <li><code>arrivalsPerSecond</code> - the arrival rate threshold</li>
+ *     <li><code>sessionsPerSecond</code> - the new-session rate threshold</li>
+ *     <li><code>windowSeconds</code> - the window the rates are averaged over</li>
+ * </ul>
+ * @author mavi
+ */
+public class FailoverSurgeFilter implements Filter {
+    private static final String ARRIVAL = FailoverSurge.ARRIVAL_PARAMETER + "=" + FailoverSurge.ARRIVAL_FAILOVER;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        try {
+            final String arrivalsPerSecond = filterConfig.getInitParameter("arrivalsPerSecond");
+            if (arrivalsPerSecond != null) {
+                FailoverSurge.get().setArrivalsPerSecondThreshold(Double.parseDouble(arrivalsPerSecond.trim()));
+            }
+            final String sessionsPerSecond = filterConfig.getInitParameter("sessionsPerSecond");
+            if (sessionsPerSecond != null) {
+                FailoverSurge.get().setSessionsPerSecondThreshold(Double.parseDouble(sessionsPerSecond.trim()));
+            }
+            final String windowSeconds = filterConfig.getInitParameter("windowSeconds");
+            if (windowSeconds != null) {
+                FailoverSurge.get().setWindowSeconds(Integer.parseInt(windowSeconds.trim()));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ServletException("Invalid init parameter: " + e.getMessage(), e);
+        }
+        FailoverSurge.get().registerMBean();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final HttpServletRequest req = (HttpServletRequest) request;
+        if (isStandbyOrWarmup(req)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final boolean hadSession = req.getSession(false) != null;
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (!hadSession && req.getSession(false) != null) {
+                FailoverSurge.get().onNewSession();
+                if (isArrival(req.getQueryString())) {
+                    FailoverSurge.get().onArrival();
+                    final String incidentId = getParameter(req.getQueryString(), FailoverTelemetry.INCIDENT_PARAMETER);
+                    if (incidentId != null) {
+                        FailoverTelemetry.get().onArrival(incidentId);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the request comes from a hot standby iframe, or is a warm-up request of this very server. The warm-up header
+     * is only trusted from the loopback address, so that browsers can't hide from the surge detection.
+     */
+    private static boolean isStandbyOrWarmup(HttpServletRequest req) {
+        if (hasParameter(req.getQueryString(), FailoverStandbyFilter.PARAMETER)) {
+            return true;
+        }
+        if (req.getHeader(HttpWarmupTask.WARMUP_HEADER) == null) {
+            return false;
+        }
+        try {
+            return InetAddress.getByName(req.getRemoteAddr()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static boolean hasParameter(String queryString, String parameter) {
+        if (queryString == null) {
+            return false;
+        }
+        for (String pair : queryString.split("&")) {
+            if (pair.equals(parameter) || pair.startsWith(parameter + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getParameter(String queryString, String parameter) {
+        for (String pair : queryString.split("&")) {
+            if (pair.startsWith(parameter + "=")) {
+                return pair.substring(parameter.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isArrival(String queryString) {
+        if (queryString == null) {
+            return false;
+        }
+        final int index = queryString.indexOf(ARRIVAL);
+        if (index < 0) {
+            return false;
+        }
+        final int end = index + ARRIVAL.length();
+        return (index == 0 || queryString.charAt(index - 1) == '&') && (end == queryString.length() || queryString.charAt(end) == '&');
+    }
+
+    @Override
+    public void destroy() {
+        FailoverSurge.get().unregisterMBean();
+    }
+}
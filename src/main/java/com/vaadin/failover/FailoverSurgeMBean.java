@@ -0,0 +1,43 @@
+package com.vaadin.failover;
+
+/**
+ * The JMX view of {@link FailoverSurge}. All rates are per second, averaged over the window.
+ * @author mavi
+ */
+public interface FailoverSurgeMBean {
+    double getArrivalsPerSecond();
+
+    double getSessionsPerSecond();
+
+    /**
+     * @return true if a surge is ongoing.
+     */
+    boolean isSurge();
+
+    /**
+     * @return the number of surges detected so far.
+     */
+    long getSurges();
+
+    /**
+     * @return the total number of fail-over arrivals.
+     */
+    long getArrivals();
+
+    /**
+     * @return the total number of new sessions.
+     */
+    long getSessions();
+
+    double getArrivalsPerSecondThreshold();
+
+    void setArrivalsPerSecondThreshold(double arrivalsPerSecondThreshold);
+
+    double getSessionsPerSecondThreshold();
+
+    void setSessionsPerSecondThreshold(double sessionsPerSecondThreshold);
+
+    int getWindowSeconds();
+
+    void setWindowSeconds(int windowSeconds);
+}
@@ -0,0 +1,437 @@
+package com.vaadin.failover;
+
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Aggregates the fail-over incident records sent by the browsers (see {@link FailoverTelemetryServlet}) into lock-free counters and
+ * histograms. There is one instance per web application, see {@link #get()}; while the {@link FailoverTelemetryServlet} is in service,
+ * the instance is registered in the platform MBean server as {@value #OBJECT_NAME}.
+ * <p>
+ * The records arrive via an unauthenticated POST, so the probe outcomes are only passed on to {@link FailoverNodeHealth} once the
+ * browser has actually arrived: the record carries a random incident ID which the browser also appends to the URL it fails over to,
+ * as the {@value #INCIDENT_PARAMETER} parameter. Only when that arrival creates a new session (see {@link FailoverSurgeFilter},
+ * which must be mapped for the node health to learn from the browsers) are the probes of the record counted, at most one outcome
+ * per URL. A browser which adopts a hot standby already has a session on the spare, so its probes are not counted.
+ * @author mavi
+ */
+public final class FailoverTelemetry implements FailoverTelemetryMBean {
+    /**
+     * The JMX name of the telemetry MBean.
+     */
+    public static final String OBJECT_NAME = "com.vaadin.failover:type=FailoverTelemetry";
+    /**
+     * The URL parameter carrying the incident ID on the fail-over arrival.
+     */
+    public static final String INCIDENT_PARAMETER = "failover-incident";
+    /**
+     * At most this many incidents wait for their record or their arrival; the others are not passed on to the node health.
+     */
+    static final int MAX_PENDING = 1000;
+    /**
+     * How long an incident waits for its record or its arrival.
+     */
+    static final long PENDING_MILLIS = 60 * 1000L;
+    /**
+     * One record reports the outcome of at most this many URLs to the node health.
+     */
+    static final int MAX_HEALTH_URLS = 10;
+
+    private static final Logger log = Logger.getLogger(FailoverTelemetry.class.getName());
+
+    private static final FailoverTelemetry INSTANCE = new FailoverTelemetry(FailoverNodeHealth.get());
+
+    /**
+     * Returns the telemetry instance.
+     * @return the instance, not null.
+     */
+    public static FailoverTelemetry get() {
+        return INSTANCE;
+    }
+
+    private final AtomicLong incidents = new AtomicLong();
+    private final AtomicLong rejectedRecords = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong failedProbes = new AtomicLong();
+    private final Histogram detectionToStartMillis = new Histogram(Histogram.MILLIS_BUCKETS);
+    private final Histogram startToRedirectMillis = new Histogram(Histogram.MILLIS_BUCKETS);
+    private final Histogram timeToRedirectMillis = new Histogram(Histogram.MILLIS_BUCKETS);
+    private final Histogram probeRttMillis = new Histogram(Histogram.MILLIS_BUCKETS);
+    private final Histogram cycles = new Histogram(1, 2, 3, 5, 10, 20);
+    private final FailoverNodeHealth health;
+    /**
+     * The recent incidents, keyed by the incident ID, in the order of creation. An incident which has both sent its record and
+     * arrived stays here until it expires, so that neither can be replayed. Guarded by itself.
+     */
+    private final LinkedHashMap<String, PendingIncident> pending = new LinkedHashMap<>();
+
+    /**
+     * True if this instance is registered in the platform MBean server.
+     */
+    private boolean registered = false;
+
+    FailoverTelemetry(FailoverNodeHealth health) {
+        this.health = health;
+    }
+
+    /**
+     * Registers this instance in the platform MBean server. Called by {@link FailoverTelemetryServlet#init()}.
+     */
+    synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                registered = true;
+            }
+        } catch (JMException | SecurityException e) {
+            // most probably another web application already registered its own telemetry. Not fatal, the telemetry is
+            // still available via the FailoverTelemetryServlet.
+            log.log(Level.WARNING, "Failed to register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Unregisters this instance from the platform MBean server, so that the MBean does not outlive the web application (and pin
+     * its class loader) on redeploy. Called by {@link FailoverTelemetryServlet#destroy()}.
+     */
+    synchronized void unregisterMBean() {
+        if (!registered) {
+            return;
+        }
+        registered = false;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            log.log(Level.WARNING, "Failed to unregister " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Records one incident as sent by the browser.
+     * @param record the record, not null.
+     * @throws IllegalArgumentException if the record is malformed.
+     */
+    public void record(JsonObject record) {
+        record(record, System.currentTimeMillis());
+    }
+
+    void record(JsonObject record, long now) {
+        if (getNumber(record, "v") != 1) {
+            rejectedRecords.incrementAndGet();
+            throw new IllegalArgumentException("Parameter record: unsupported version " + record.get("v"));
+        }
+        final long detectionToStart = getNumber(record, "detectionToStartMillis");
+        final long startToRedirect = getNumber(record, "startToRedirectMillis");
+        final long timeToRedirect = getNumber(record, "timeToRedirectMillis");
+        final long cycleCount = getNumber(record, "cycles");
+        final JsonValue probeArray = record.get("probes");
+        if (probeArray == null || probeArray.getType() != JsonType.ARRAY) {
+            rejectedRecords.incrementAndGet();
+            throw new IllegalArgumentException("Parameter record: missing probes");
+        }
+        final JsonArray jsonProbes = (JsonArray) probeArray;
+        if (log.isLoggable(Level.FINE) && record.hasKey("log")) {
+            log.fine("Fail-over incident client log: " + record.get("log").toJson());
+        }
+        incidents.incrementAndGet();
+        detectionToStartMillis.record(detectionToStart);
+        startToRedirectMillis.record(startToRedirect);
+        timeToRedirectMillis.record(timeToRedirect);
+        cycles.record(cycleCount);
+        long probeCount = 0;
+        long failedProbeCount = 0;
+        for (int i = 0; i < jsonProbes.length(); i++) {
+            final JsonValue probe = jsonProbes.get(i);
+            if (probe.getType() != JsonType.OBJECT) {
+                continue;
+            }
+            final JsonObject p = (JsonObject) probe;
+            probeCount++;
+            if (!p.hasKey("ok") || p.get("ok").getType() != JsonType.BOOLEAN || !p.getBoolean("ok")) {
+                failedProbeCount++;
+            }
+            if (p.hasKey("rtt") && p.get("rtt").getType() == JsonType.NUMBER) {
+                probeRttMillis.record((long) p.getNumber("rtt"));
+            }
+        }
+        probes.addAndGet(probeCount);
+        failedProbes.addAndGet(failedProbeCount);
+        final JsonValue id = record.get("id");
+        if (id != null && id.getType() == JsonType.STRING && isValidIncidentId(id.asString())) {
+            onRecord(id.asString(), getOutcomes(jsonProbes), now);
+        }
+    }
+
+    /**
+     * Collects the outcome of the last probe of every URL, for at most {@link #MAX_HEALTH_URLS} URLs.
+     */
+    static Map<String, Boolean> getOutcomes(JsonArray probes) {
+        final Map<String, Boolean> outcomes = new LinkedHashMap<>();
+        for (int i = 0; i < probes.length(); i++) {
+            final JsonValue probe = probes.get(i);
+            if (probe.getType() != JsonType.OBJECT) {
+                continue;
+            }
+            final JsonObject p = (JsonObject) probe;
+            final JsonValue url = p.get("url");
+            final JsonValue ok = p.get("ok");
+            if (url == null || url.getType() != JsonType.STRING || ok == null || ok.getType() != JsonType.BOOLEAN) {
+                continue;
+            }
+            if (outcomes.containsKey(url.asString()) || outcomes.size() < MAX_HEALTH_URLS) {
+                outcomes.put(url.asString(), ok.asBoolean());
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Checks that given incident ID is one the browser could have generated; keeps the garbage out of the {@link #pending} map.
+     * @param id the ID, not null.
+     * @return true if the ID is 16 to 64 letters, digits, dashes or underscores.
+     */
+    static boolean isValidIncidentId(String id) {
+        if (id.length() < 16 || id.length() > 64) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            final char c = id.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called by {@link FailoverSurgeFilter} when a fail-over arrival carrying the {@value #INCIDENT_PARAMETER} parameter created
+     * a new session. Passes the probes of the incident's record to the {@link FailoverNodeHealth}; if the record has not been
+     * received yet, they are passed on when it arrives.
+     * @param incidentId the value of the {@value #INCIDENT_PARAMETER} parameter, not null.
+     */
+    public void onArrival(String incidentId) {
+        onArrival(incidentId, System.currentTimeMillis());
+    }
+
+    void onArrival(String incidentId, long now) {
+        if (!isValidIncidentId(incidentId)) {
+            return;
+        }
+        final Map<String, Boolean> outcomes;
+        synchronized (pending) {
+            evictExpired(now);
+            final PendingIncident incident = pending.get(incidentId);
+            if (incident == null) {
+                if (pending.size() < MAX_PENDING) {
+                    pending.put(incidentId, new PendingIncident(null, true, now));
+                }
+                return;
+            }
+            if (incident.arrived) {
+                // the same arrival twice
+                return;
+            }
+            pending.put(incidentId, PendingIncident.counted(incident.at));
+            outcomes = incident.outcomes;
+        }
+        recordHealth(outcomes);
+    }
+
+    private void onRecord(String incidentId, Map<String, Boolean> outcomes, long now) {
+        synchronized (pending) {
+            evictExpired(now);
+            final PendingIncident incident = pending.get(incidentId);
+            if (incident == null) {
+                if (pending.size() < MAX_PENDING) {
+                    pending.put(incidentId, new PendingIncident(outcomes, false, now));
+                }
+                return;
+            }
+            if (incident.recorded) {
+                // the same record twice
+                return;
+            }
+            pending.put(incidentId, PendingIncident.counted(incident.at));
+        }
+        recordHealth(outcomes);
+    }
+
+    private void evictExpired(long now) {
+        final Iterator<PendingIncident> it = pending.values().iterator();
+        while (it.hasNext() && it.next().at + PENDING_MILLIS <= now) {
+            it.remove();
+        }
+    }
+
+    private void recordHealth(Map<String, Boolean> outcomes) {
+        for (Map.Entry<String, Boolean> outcome : outcomes.entrySet()) {
+            health.record(outcome.getKey(), outcome.getValue());
+        }
+    }
+
+    /**
+     * A recent incident; immutable.
+     */
+    private static final class PendingIncident {
+        /**
+         * The probe outcomes of the record which are yet to be counted, see {@link #getOutcomes(JsonArray)}; null if the record
+         * has not been received yet or if it has already been counted.
+         */
+        final Map<String, Boolean> outcomes;
+        /**
+         * True if the record has been received.
+         */
+        final boolean recorded;
+        /**
+         * True if the browser has arrived.
+         */
+        final boolean arrived;
+        /**
+         * When the incident was first seen.
+         */
+        final long at;
+
+        PendingIncident(Map<String, Boolean> outcomes, boolean arrived, long at) {
+            this(outcomes, outcomes != null, arrived, at);
+        }
+
+        private PendingIncident(Map<String, Boolean> outcomes, boolean recorded, boolean arrived, long at) {
+            this.outcomes = outcomes == null ? null : Collections.unmodifiableMap(outcomes);
+            this.recorded = recorded;
+            this.arrived = arrived;
+            this.at = at;
+        }
+
+        /**
+         * @return an incident which has both been recorded and arrived, and whose outcomes have been counted.
+         */
+        static PendingIncident counted(long at) {
+            return new PendingIncident(null, true, true, at);
+        }
+    }
+
+    private long getNumber(JsonObject record, String key) {
+        if (!record.hasKey(key) || record.get(key).getType() != JsonType.NUMBER) {
+            rejectedRecords.incrementAndGet();
+            throw new IllegalArgumentException("Parameter record: missing or invalid " + key);
+        }
+        return (long) record.getNumber(key);
+    }
+
+    /**
+     * Marks a record which could not even be parsed as rejected.
+     */
+    void onRejected() {
+        rejectedRecords.incrementAndGet();
+    }
+
+    @Override
+    public long getIncidents() {
+        return incidents.get();
+    }
+
+    @Override
+    public long getRejectedRecords() {
+        return rejectedRecords.get();
+    }
+
+    @Override
+    public long getProbes() {
+        return probes.get();
+    }
+
+    @Override
+    public long getFailedProbes() {
+        return failedProbes.get();
+    }
+
+    @Override
+    public double getMeanTimeToRedirectMillis() {
+        return timeToRedirectMillis.getMean();
+    }
+
+    @Override
+    public long getTimeToRedirectMillisP50() {
+        return timeToRedirectMillis.getPercentile(50);
+    }
+
+    @Override
+    public long getTimeToRedirectMillisP99() {
+        return timeToRedirectMillis.getPercentile(99);
+    }
+
+    @Override
+    public double getMeanDetectionToStartMillis() {
+        return detectionToStartMillis.getMean();
+    }
+
+    @Override
+    public double getMeanProbeRttMillis() {
+        return probeRttMillis.getMean();
+    }
+
+    @Override
+    public long getProbeRttMillisP99() {
+        return probeRttMillis.getPercentile(99);
+    }
+
+    @Override
+    public double getMeanCycles() {
+        return cycles.getMean();
+    }
+
+    @Override
+    public void reset() {
+        incidents.set(0);
+        rejectedRecords.set(0);
+        probes.set(0);
+        failedProbes.set(0);
+        detectionToStartMillis.reset();
+        startToRedirectMillis.reset();
+        timeToRedirectMillis.reset();
+        probeRttMillis.reset();
+        cycles.reset();
+    }
+
+    /**
+     * Produces all counters and histograms in the Prometheus text exposition format.
+     * @return the metrics, not null.
+     */
+    public String toText() {
+        final StringBuilder sb = new StringBuilder();
+        writeCounter(sb, "failover_incidents_total", incidents.get());
+        writeCounter(sb, "failover_rejected_records_total", rejectedRecords.get());
+        writeCounter(sb, "failover_probes_total", probes.get());
+        writeCounter(sb, "failover_failed_probes_total", failedProbes.get());
+        detectionToStartMillis.writeTo(sb, "failover_detection_to_start_millis");
+        startToRedirectMillis.writeTo(sb, "failover_start_to_redirect_millis");
+        timeToRedirectMillis.writeTo(sb, "failover_time_to_redirect_millis");
+        probeRttMillis.writeTo(sb, "failover_probe_rtt_millis");
+        cycles.writeTo(sb, "failover_cycles");
+        return sb.toString();
+    }
+
+    static void writeCounter(StringBuilder sb, String name, long value) {
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,50 @@
+package com.vaadin.failover;
+
+/**
+ * The JMX view of {@link FailoverTelemetry}. All durations are in milliseconds.
+ * @author mavi
+ */
+public interface FailoverTelemetryMBean {
+    /**
+     * @return the number of fail-over incidents reported by browsers which were redirected to this server.
+     */
+    long getIncidents();
+
+    /**
+     * @return the number of telemetry records rejected as malformed.
+     */
+    long getRejectedRecords();
+
+    /**
+     * @return the total number of probes performed by the browsers.
+     */
+    long getProbes();
+
+    /**
+     * @return the number of probes which found the server dead (or timed out).
+     */
+    long getFailedProbes();
+
+    double getMeanTimeToRedirectMillis();
+
+    long getTimeToRedirectMillisP50();
+
+    long getTimeToRedirectMillisP99();
+
+    /**
+     * @return the mean time between detecting the connection loss and starting the fail-over. Usually the time the user needed
+     * to press the "Try Spare Servers" button.
+     */
+    double getMeanDetectionToStartMillis();
+
+    double getMeanProbeRttMillis();
+
+    long getProbeRttMillisP99();
+
+    double getMeanCycles();
+
+    /**
+     * Clears all counters and histograms.
+     */
+    void reset();
+}
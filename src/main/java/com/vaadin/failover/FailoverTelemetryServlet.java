@@ -0,0 +1,100 @@
+package com.vaadin.failover;
+
+import elemental.json.Json;
+import elemental.json.JsonException;
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Receives the fail-over incident records sent by the browsers after the fail-over (see {@link FailoverReconnectExtension#setTelemetryPath(String)})
+ * and aggregates them in {@link FailoverTelemetry}. A GET request returns the aggregated metrics in the Prometheus text format, so that
+ * the servlet can be scraped directly.
+ * <p>
+ * Map the servlet to the telemetry path, e.g. <code>@WebServlet("/failover-telemetry")</code>. The browser sends the record via
+ * <code>navigator.sendBeacon()</code> as a <code>text/plain</code> POST, which requires no CORS preflight.
+ * @author mavi
+ */
+public class FailoverTelemetryServlet extends HttpServlet {
+    /**
+     * Records larger than this are rejected. A record with a couple of dozens of probes is well under 8kb.
+     */
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        FailoverTelemetry.get().registerMBean();
+    }
+
+    @Override
+    public void destroy() {
+        FailoverTelemetry.get().unregisterMBean();
+        super.destroy();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        final String body = readBody(req);
+        if (body == null) {
+            FailoverTelemetry.get().onRejected();
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        try {
+            final JsonValue record = Json.parse(body);
+            if (record.getType() != JsonType.OBJECT) {
+                FailoverTelemetry.get().onRejected();
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            FailoverTelemetry.get().record((JsonObject) record);
+        } catch (JsonException e) {
+            FailoverTelemetry.get().onRejected();
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.getWriter().write(FailoverTelemetry.get().toText());
+    }
+
+    /**
+     * Reads the request body.
+     * @return the body, or null if it is larger than {@link #MAX_RECORD_BYTES}.
+     */
+    private static String readBody(HttpServletRequest req) throws IOException {
+        if (req.getContentLength() > MAX_RECORD_BYTES) {
+            return null;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        try (InputStream in = req.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+                if (out.size() > MAX_RECORD_BYTES) {
+                    return null;
+                }
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,279 @@
+package com.vaadin.failover;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warms up a spare server before it reports itself ready for fail-over traffic. A freshly started spare which suddenly receives
+ * thousands of redirected browsers responds slowly: the JIT is cold, caches are empty, the Vaadin servlet is not yet initialized.
+ * <p>
+ * Register the {@link WarmupTask}s via {@link #addTask(WarmupTask)}, then call {@link #start()}. Until all tasks finish,
+ * {@link #isReady()} returns false and the {@link FailoverWarmupFilter} (mapped to the ping path) rejects the fail-over probes,
+ * so that the browsers fail over elsewhere.
+ * <p>
+ * A primary server which is being drained may hint the spares to prepare for the arrivals, see {@link #notifyPeers(List)}. The hint
+ * re-runs all warm-up tasks, so it is only accepted with the shared secret: all servers must share the same secret, via the
+ * {@value #SECRET_PROPERTY} system property or {@link #setSecret(String)}. Without a secret, the hints are neither sent nor accepted.
+ * There is one instance per web application, see {@link #get()}. The background threads are started on first use and stopped by
+ * {@link #shutdown()}, see {@link FailoverContextListener}.
+ * @author mavi
+ */
+public final class FailoverWarmup {
+    private static final Logger log = Logger.getLogger(FailoverWarmup.class.getName());
+
+    /**
+     * The request parameter which marks the "prepare for arrivals" hint, see {@link FailoverWarmupFilter}.
+     */
+    public static final String PREPARE_PARAMETER = "failover-prepare";
+
+    /**
+     * The HTTP header carrying the shared secret of the "prepare for arrivals" hint.
+     */
+    public static final String SECRET_HEADER = "X-Failover-Secret";
+
+    /**
+     * The system property with the shared secret, see {@link #setSecret(String)}. The <code>FAILOVER_WARMUP_SECRET</code> environment
+     * variable is used if the property is not set.
+     */
+    public static final String SECRET_PROPERTY = "failover.warmup.secret";
+
+    /**
+     * Repeated "prepare for arrivals" hints within this period are ignored.
+     */
+    private static final long PREPARE_MIN_INTERVAL_MILLIS = 30000;
+
+    private static final FailoverWarmup INSTANCE = new FailoverWarmup();
+
+    /**
+     * Returns the warm-up instance.
+     * @return the instance, not null.
+     */
+    public static FailoverWarmup get() {
+        return INSTANCE;
+    }
+
+    private final List<WarmupTask> tasks = new CopyOnWriteArrayList<>();
+    private volatile boolean ready = true;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile long lastPrepareAt = 0;
+    private volatile byte[] secret = readSecret();
+    /**
+     * Runs the warm-up tasks; null until first needed.
+     */
+    private ExecutorService executor = null;
+    /**
+     * Sends the hints to the peers, so that the hints do not wait for a running warm-up; null until first needed.
+     */
+    private ExecutorService hintExecutor = null;
+
+    private FailoverWarmup() {
+    }
+
+    private static byte[] readSecret() {
+        String secret = System.getProperty(SECRET_PROPERTY);
+        if (secret == null) {
+            secret = System.getenv(SECRET_PROPERTY.replace('.', '_').toUpperCase());
+        }
+        return secret == null || secret.trim().isEmpty() ? null : secret.trim().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sets the secret shared by all servers, which authenticates the "prepare for arrivals" hints. Defaults to the value of the
+     * {@value #SECRET_PROPERTY} system property.
+     * @param secret the secret, null to neither send nor accept the hints. Must not be empty.
+     */
+    public void setSecret(String secret) {
+        if (secret != null && secret.trim().isEmpty()) {
+            throw new IllegalArgumentException("Parameter secret: invalid value " + secret + ": must not be empty");
+        }
+        this.secret = secret == null ? null : secret.trim().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks the secret sent with a "prepare for arrivals" hint, in constant time.
+     * @param candidate the value of the {@value #SECRET_HEADER} header, may be null.
+     * @return true if a secret is configured and the candidate matches it.
+     */
+    boolean isValidSecret(String candidate) {
+        final byte[] s = secret;
+        return s != null && candidate != null && MessageDigest.isEqual(s, candidate.trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "failover-warmup");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private synchronized ExecutorService getHintExecutor() {
+        if (hintExecutor == null) {
+            hintExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "failover-warmup-hints");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return hintExecutor;
+    }
+
+    /**
+     * Stops the background threads, interrupting a running warm-up. Call when the web application is undeployed, so that the threads
+     * do not pin its class loader; the threads are started again on next use.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (hintExecutor != null) {
+            hintExecutor.shutdownNow();
+            hintExecutor = null;
+        }
+        // the queued warm-up (if any) will never run
+        running.set(false);
+        ready = true;
+    }
+
+    /**
+     * Adds a warm-up task. The tasks run in the order they were added.
+     * @param task the task, not null.
+     */
+    public void addTask(WarmupTask task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Parameter task: invalid value null: must not be null");
+        }
+        tasks.add(task);
+    }
+
+    /**
+     * Returns the list of registered tasks.
+     * @return the tasks, not null.
+     */
+    public List<WarmupTask> getTasks() {
+        return new ArrayList<>(tasks);
+    }
+
+    /**
+     * Checks whether the server is warmed up and ready for the fail-over traffic. True if {@link #start()} has never been called.
+     * @return true if ready.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Runs all warm-up tasks in a background thread. {@link #isReady()} returns false until all the tasks finish.
+     * Does nothing if the warm-up is already running.
+     */
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            ready = false;
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runTasks();
+                    } finally {
+                        ready = true;
+                        running.set(false);
+                        log.info("Warm-up finished, ready for fail-over traffic");
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Called when a peer hints that the fail-over traffic is coming. Re-runs the warm-up tasks in the background to refill the caches;
+     * the server stays ready meanwhile. Ignored if the warm-up is running, or if the previous hint arrived only recently.
+     */
+    public void prepareForArrivals() {
+        final long now = System.currentTimeMillis();
+        if (now - lastPrepareAt < PREPARE_MIN_INTERVAL_MILLIS) {
+            return;
+        }
+        lastPrepareAt = now;
+        if (running.compareAndSet(false, true)) {
+            log.info("Preparing for fail-over arrivals");
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runTasks();
+                    } finally {
+                        running.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private void runTasks() {
+        for (WarmupTask task : tasks) {
+            try {
+                task.warmUp();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Warm-up task " + task + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Hints the peers that the fail-over traffic is coming their way; call this when draining this server. The hints are sent
+     * in the background, with the shared secret; failures are only logged.
+     * @param peerUrls the URLs at which the peers run the {@link FailoverWarmupFilter}, e.g. the ping image URL.
+     * @throws IllegalStateException if no secret is configured, see {@link #setSecret(String)}.
+     */
+    public void notifyPeers(List<String> peerUrls) {
+        FailoverReconnectExtension.checkUrls(peerUrls);
+        final byte[] s = secret;
+        if (s == null) {
+            throw new IllegalStateException("The warm-up secret is not configured: set the " + SECRET_PROPERTY + " system property");
+        }
+        final String secretValue = new String(s, StandardCharsets.UTF_8);
+        for (final String peerUrl : new ArrayList<>(peerUrls)) {
+            getHintExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final String url = peerUrl + (peerUrl.contains("?") ? "&" : "?") + PREPARE_PARAMETER;
+                        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                        connection.setRequestMethod("POST");
+                        connection.setRequestProperty(SECRET_HEADER, secretValue);
+                        connection.setConnectTimeout(2000);
+                        connection.setReadTimeout(2000);
+                        connection.getResponseCode();
+                        connection.disconnect();
+                    } catch (Exception e) {
+                        log.log(Level.INFO, "Failed to notify peer " + peerUrl, e);
+                    }
+                }
+            });
+        }
+    }
+}
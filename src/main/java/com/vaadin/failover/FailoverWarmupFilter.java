@@ -0,0 +1,53 @@
+package com.vaadin.failover;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Holds back the fail-over probes until the server is warmed up, see {@link FailoverWarmup}. Map this filter to the ping path
+ * (e.g. <code>/VAADIN/themes/valo/img/app-icon.png</code> when the Image Ping is used). While the warm-up is running, the filter responds
+ * with <code>503 Service Unavailable</code>; both the Image Ping and the Ajax Ping treat that as a dead server and move on to the next URL.
+ * <p>
+ * A POST with the {@value FailoverWarmup#PREPARE_PARAMETER} parameter is the "prepare for arrivals" hint sent by a draining peer,
+ * see {@link FailoverWarmup#notifyPeers(java.util.List)}. The hint must carry the shared secret in the
+ * {@value FailoverWarmup#SECRET_HEADER} header, otherwise it is rejected with <code>403 Forbidden</code>.
+ * @author mavi
+ */
+public class FailoverWarmupFilter implements Filter {
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final HttpServletRequest req = (HttpServletRequest) request;
+        final HttpServletResponse resp = (HttpServletResponse) response;
+        if ("POST".equals(req.getMethod()) && req.getParameter(FailoverWarmup.PREPARE_PARAMETER) != null) {
+            if (!FailoverWarmup.get().isValidSecret(req.getHeader(FailoverWarmup.SECRET_HEADER))) {
+                resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return;
+            }
+            FailoverWarmup.get().prepareForArrivals();
+            resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+            return;
+        }
+        if (!FailoverWarmup.get().isReady()) {
+            resp.setHeader("Retry-After", "5");
+            resp.setHeader("Cache-Control", "no-cache");
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
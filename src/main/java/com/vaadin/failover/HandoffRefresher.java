@@ -0,0 +1,96 @@
+package com.vaadin.failover;
+
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically refreshes the handoff tokens of all UIs with the handoff enabled, see
+ * {@link FailoverReconnectExtension#setHandoff(FailoverHandoff, FailoverHandoff.Provider)}. The refreshed token reaches the browser
+ * immediately with server push, or with the next poll. There is one instance per web application, see {@link #get()}; the background
+ * thread is started by the first {@link #start()} and stopped by {@link #shutdown()}, see {@link FailoverContextListener}.
+ * @author mavi
+ */
+final class HandoffRefresher {
+    private static final Logger log = Logger.getLogger(HandoffRefresher.class.getName());
+
+    private static final HandoffRefresher INSTANCE = new HandoffRefresher();
+
+    static HandoffRefresher get() {
+        return INSTANCE;
+    }
+
+    private ScheduledExecutorService executor = null;
+
+    private HandoffRefresher() {
+    }
+
+    /**
+     * Starts the periodic refresh. Does nothing if already started.
+     */
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "failover-handoff-refresher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refreshStaleTokens();
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Failed to refresh the handoff tokens", e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void refreshStaleTokens() {
+        final long now = System.currentTimeMillis();
+        for (final FailoverReconnectExtension extension : new ArrayList<>(FailoverReconnectExtension.ATTACHED)) {
+            if (!extension.isHandoffTokenStale(now)) {
+                continue;
+            }
+            final UI ui = extension.getUI();
+            if (ui == null || ui.getSession() == null) {
+                continue;
+            }
+            extension.setHandoffRefreshPending(true);
+            try {
+                ui.access(new Runnable() {
+                    @Override
+                    public void run() {
+                        extension.setHandoffRefreshPending(false);
+                        extension.refreshHandoffToken();
+                    }
+                });
+            } catch (UIDetachedException e) {
+                // the UI is gone, nothing to refresh
+            }
+        }
+    }
+}
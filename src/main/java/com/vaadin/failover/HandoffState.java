@@ -0,0 +1,69 @@
+package com.vaadin.failover;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The state carried across the fail-over redirect in the handoff token, see {@link FailoverHandoff}: who the user is,
+ * where in the app they were, and a couple of selected parameters. Keep it small - the token travels in the URL.
+ * @author mavi
+ */
+public final class HandoffState implements Serializable {
+    private final String identity;
+    private final String route;
+    private final Map<String, String> parameters;
+    private final long issuedAt;
+
+    /**
+     * Creates the state, issued now.
+     * @param identity the user identity, e.g. the user name. May be null if the user is not logged in.
+     * @param route the current view or route, e.g. the Navigator state. May be null.
+     * @param parameters selected parameters to restore, not null, may be empty.
+     */
+    public HandoffState(String identity, String route, Map<String, String> parameters) {
+        this(identity, route, parameters, System.currentTimeMillis());
+    }
+
+    HandoffState(String identity, String route, Map<String, String> parameters, long issuedAt) {
+        this.identity = identity;
+        this.route = route;
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<>(Objects.requireNonNull(parameters)));
+        this.issuedAt = issuedAt;
+    }
+
+    /**
+     * @return the user identity, e.g. the user name. May be null if the user is not logged in.
+     */
+    public String getIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return the current view or route, e.g. the Navigator state. May be null.
+     */
+    public String getRoute() {
+        return route;
+    }
+
+    /**
+     * @return selected parameters to restore, not null, may be empty.
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return when the state was captured, in milliseconds since the epoch.
+     */
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "HandoffState{identity=" + identity + ", route=" + route + ", parameters=" + parameters.keySet() + ", issuedAt=" + issuedAt + '}';
+    }
+}
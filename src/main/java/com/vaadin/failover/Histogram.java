@@ -0,0 +1,159 @@
+package com.vaadin.failover;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram with fixed bucket boundaries. Thread-safe: values may be recorded from any number of threads concurrently,
+ * without any locking. Reading is not atomic as a whole - a snapshot taken while values are being recorded may be off by a couple of
+ * values, which is fine for monitoring purposes.
+ * @author mavi
+ */
+public final class Histogram implements Serializable {
+    /**
+     * The default bucket boundaries suitable for measuring durations in milliseconds, from 10ms up to 2 minutes.
+     */
+    public static final long[] MILLIS_BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 60000, 120000};
+
+    /**
+     * Inclusive upper bounds of the buckets, sorted ascending. There is one more implicit bucket for values larger than the last bound.
+     */
+    private final long[] upperBounds;
+    private final AtomicLongArray counts;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Creates the histogram.
+     * @param upperBounds inclusive upper bounds of the buckets, must be sorted ascending. Not null, must not be empty.
+     */
+    public Histogram(long... upperBounds) {
+        if (upperBounds.length == 0) {
+            throw new IllegalArgumentException("Parameter upperBounds: invalid value " + Arrays.toString(upperBounds) + ": must not be empty");
+        }
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (upperBounds[i - 1] >= upperBounds[i]) {
+                throw new IllegalArgumentException("Parameter upperBounds: invalid value " + Arrays.toString(upperBounds) + ": must be sorted ascending");
+            }
+        }
+        this.upperBounds = upperBounds.clone();
+        this.counts = new AtomicLongArray(upperBounds.length + 1);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     * @param value the value to record.
+     */
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        int bucket = Arrays.binarySearch(upperBounds, v);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(v);
+    }
+
+    /**
+     * @return the number of values recorded so far.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of all values recorded so far.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return the mean of all recorded values, 0 if there are none.
+     */
+    public double getMean() {
+        final long c = count.get();
+        return c == 0 ? 0 : ((double) sum.get()) / c;
+    }
+
+    /**
+     * Estimates given percentile, as the upper bound of the bucket the percentile falls into.
+     * @param percentile the percentile, 0..100
+     * @return the estimated value; 0 if there are no values recorded; {@link Long#MAX_VALUE} if the percentile falls into the last,
+     * unbounded bucket.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Parameter percentile: invalid value " + percentile + ": must be 0..100");
+        }
+        final long[] snapshot = getBucketCounts();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(percentile / 100 * total);
+        long cumulative = 0;
+        for (int i = 0; i < upperBounds.length; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return upperBounds[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return a copy of the bucket upper bounds.
+     */
+    public long[] getUpperBounds() {
+        return upperBounds.clone();
+    }
+
+    /**
+     * @return a snapshot of the bucket counts. The array is one item longer than {@link #getUpperBounds()}: the last item
+     * counts values larger than the last bound.
+     */
+    public long[] getBucketCounts() {
+        final long[] result = new long[counts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Writes this histogram in the Prometheus text exposition format.
+     * @param sb the output.
+     * @param name the metric name.
+     */
+    void writeTo(StringBuilder sb, String name) {
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        final long[] snapshot = getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < upperBounds.length; i++) {
+            cumulative += snapshot[i];
+            sb.append(name).append("_bucket{le=\"").append(upperBounds[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += snapshot[upperBounds.length];
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        sb.append(name).append("_sum ").append(getSum()).append('\n');
+        sb.append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+    }
+}
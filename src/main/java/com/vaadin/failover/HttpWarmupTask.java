@@ -0,0 +1,122 @@
+package com.vaadin.failover;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Warms up the server by performing synthetic GET requests: for example to the bootstrap page (which initializes the Vaadin servlet and
+ * compiles the hot paths), and to static resources such as the theme CSS and the widgetset (which fills the caches).
+ * <p>
+ * The server usually starts listening only after the web application has been initialized; therefore every request is retried a couple
+ * of times until the server accepts the connection.
+ * <p>
+ * Note that a GET of the bootstrap page creates a real HTTP session (and, with the widgetset loaded, a UI) on the server, exactly
+ * like a browser would; it also passes through the <code>FailoverAdmissionFilter</code>. To keep the cost low, all requests of one
+ * warm-up run share a single session (the cookies are kept between the requests), and the requests are marked with the
+ * {@value #WARMUP_HEADER} header, so that the {@link FailoverSurgeFilter} doesn't count them when they come from the same host.
+ * Prefer static resources and lightweight pages where possible.
+ * @author mavi
+ */
+public class HttpWarmupTask implements WarmupTask {
+    /**
+     * The HTTP header which marks the warm-up requests.
+     */
+    public static final String WARMUP_HEADER = "X-Failover-Warmup";
+
+    private final List<String> urls;
+    private final int repeat;
+
+    /**
+     * Creates the task.
+     * @param urls the absolute URLs to request, e.g. <code>http://localhost:8080/</code> and
+     *             <code>http://localhost:8080/VAADIN/themes/valo/styles.css</code>. Not null.
+     * @param repeat how many times each URL is requested; more requests give the JIT more chance to compile the hot paths. At least 1.
+     */
+    public HttpWarmupTask(List<String> urls, int repeat) {
+        FailoverReconnectExtension.checkUrls(urls);
+        if (repeat < 1) {
+            throw new IllegalArgumentException("Parameter repeat: invalid value " + repeat + ": must be 1 or greater");
+        }
+        this.urls = new ArrayList<>(urls);
+        this.repeat = repeat;
+    }
+
+    @Override
+    public void warmUp() throws Exception {
+        // the cookies (notably the session cookie) of this run, name to "name=value"
+        final Map<String, String> cookies = new LinkedHashMap<>();
+        for (String url : urls) {
+            for (int i = 0; i < repeat; i++) {
+                get(url, i == 0 ? 10 : 1, cookies);
+            }
+        }
+    }
+
+    private static void get(String url, int attempts, Map<String, String> cookies) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                connection.setConnectTimeout(5000);
+                connection.setReadTimeout(30000);
+                connection.setRequestProperty("User-Agent", "failover-vaadin warm-up");
+                connection.setRequestProperty(WARMUP_HEADER, "true");
+                if (!cookies.isEmpty()) {
+                    connection.setRequestProperty("Cookie", join(cookies.values()));
+                }
+                // drain the response so that the connection is reused and the server writes the response fully
+                try (InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                    if (in != null) {
+                        final byte[] buffer = new byte[8192];
+                        while (in.read(buffer) >= 0) {
+                            // drain
+                        }
+                    }
+                }
+                rememberCookies(connection, cookies);
+                return;
+            } catch (IOException e) {
+                if (attempt >= attempts) {
+                    throw e;
+                }
+                // the server is probably not listening yet.
+                Thread.sleep(1000);
+            }
+        }
+    }
+
+    private static void rememberCookies(HttpURLConnection connection, Map<String, String> cookies) {
+        final List<String> setCookies = connection.getHeaderFields().get("Set-Cookie");
+        if (setCookies == null) {
+            return;
+        }
+        for (String setCookie : setCookies) {
+            final String pair = setCookie.split(";", 2)[0].trim();
+            final int eq = pair.indexOf('=');
+            if (eq > 0) {
+                cookies.put(pair.substring(0, eq), pair);
+            }
+        }
+    }
+
+    private static String join(Iterable<String> values) {
+        final StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "HttpWarmupTask{urls=" + urls + ", repeat=" + repeat + '}';
+    }
+}
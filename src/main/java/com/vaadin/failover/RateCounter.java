@@ -0,0 +1,77 @@
+package com.vaadin.failover;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free sliding-window event counter with one-second resolution, covering up to the last {@link #MAX_WINDOW_SECONDS} seconds.
+ * Thread-safe: events may be recorded from any number of threads concurrently, without any locking. When a new second starts,
+ * an event racing with the reset of its bucket may get lost, which is fine for monitoring purposes.
+ * @author mavi
+ */
+public final class RateCounter implements Serializable {
+    /**
+     * The max length of the window which can be queried.
+     */
+    public static final int MAX_WINDOW_SECONDS = 60;
+
+    /**
+     * The event counts, one bucket per second. Bucket <code>s % length</code> holds the events of the second <code>s</code>.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(MAX_WINDOW_SECONDS + 1);
+    /**
+     * The second each bucket currently holds.
+     */
+    private final AtomicLongArray seconds = new AtomicLongArray(MAX_WINDOW_SECONDS + 1);
+
+    /**
+     * Records one event, now.
+     */
+    public void record() {
+        record(System.currentTimeMillis());
+    }
+
+    void record(long nowMillis) {
+        final long second = nowMillis / 1000;
+        final int bucket = (int) (second % counts.length());
+        final long bucketSecond = seconds.get(bucket);
+        if (bucketSecond != second && seconds.compareAndSet(bucket, bucketSecond, second)) {
+            // the bucket held an old second; the first thread to notice resets it.
+            counts.set(bucket, 0);
+        }
+        counts.incrementAndGet(bucket);
+    }
+
+    /**
+     * Counts the events in the last couple of seconds, not including the current (incomplete) second.
+     * @param windowSeconds the window length, 1..{@value #MAX_WINDOW_SECONDS}.
+     * @return the number of events.
+     */
+    public long getCount(int windowSeconds) {
+        return getCount(windowSeconds, System.currentTimeMillis());
+    }
+
+    long getCount(int windowSeconds, long nowMillis) {
+        if (windowSeconds < 1 || windowSeconds > MAX_WINDOW_SECONDS) {
+            throw new IllegalArgumentException("Parameter windowSeconds: invalid value " + windowSeconds + ": must be 1.." + MAX_WINDOW_SECONDS);
+        }
+        final long now = nowMillis / 1000;
+        long result = 0;
+        for (long second = now - windowSeconds; second < now; second++) {
+            final int bucket = (int) (second % counts.length());
+            if (seconds.get(bucket) == second) {
+                result += counts.get(bucket);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the average rate over the last couple of seconds, not including the current (incomplete) second.
+     * @param windowSeconds the window length, 1..{@value #MAX_WINDOW_SECONDS}.
+     * @return events per second.
+     */
+    public double getRate(int windowSeconds) {
+        return ((double) getCount(windowSeconds)) / windowSeconds;
+    }
+}
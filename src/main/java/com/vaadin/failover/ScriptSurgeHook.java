@@ -0,0 +1,91 @@
+package com.vaadin.failover;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a local command when a surge starts or ends, e.g. a script which asks the orchestrator for more capacity. The command receives
+ * the <code>FAILOVER_SURGE</code> environment variable set to <code>started</code> or <code>ended</code>, and the current rates
+ * in <code>FAILOVER_ARRIVALS_PER_SECOND</code> and <code>FAILOVER_SESSIONS_PER_SECOND</code>. The output of the command goes to the
+ * output of this JVM. A command which doesn't finish within the timeout is killed.
+ * @author mavi
+ */
+public class ScriptSurgeHook implements SurgeHook {
+    private static final Logger log = Logger.getLogger(ScriptSurgeHook.class.getName());
+
+    private final List<String> command;
+    private final long timeoutSeconds;
+
+    /**
+     * @param timeoutSeconds the command is killed after this period, must be greater than 0.
+     * @param command the command and its arguments, e.g. <code>"/opt/app/scale-out.sh"</code>. Not null, must not be empty.
+     */
+    public ScriptSurgeHook(long timeoutSeconds, String... command) {
+        if (timeoutSeconds <= 0) {
+            throw new IllegalArgumentException("Parameter timeoutSeconds: invalid value " + timeoutSeconds + ": must be greater than 0");
+        }
+        if (command.length == 0) {
+            throw new IllegalArgumentException("Parameter command: invalid value " + Arrays.toString(command) + ": must not be empty");
+        }
+        this.timeoutSeconds = timeoutSeconds;
+        this.command = new ArrayList<>(Arrays.asList(command));
+    }
+
+    @Override
+    public void onSurgeStarted(double arrivalsPerSecond, double sessionsPerSecond) {
+        run("started", arrivalsPerSecond, sessionsPerSecond);
+    }
+
+    @Override
+    public void onSurgeEnded() {
+        run("ended", 0, 0);
+    }
+
+    private void run(String surge, double arrivalsPerSecond, double sessionsPerSecond) {
+        final ProcessBuilder builder = new ProcessBuilder(command);
+        builder.environment().put("FAILOVER_SURGE", surge);
+        builder.environment().put("FAILOVER_ARRIVALS_PER_SECOND", String.valueOf(arrivalsPerSecond));
+        builder.environment().put("FAILOVER_SESSIONS_PER_SECOND", String.valueOf(sessionsPerSecond));
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        try {
+            final Process process = builder.start();
+            final Integer exitValue = waitFor(process, TimeUnit.SECONDS.toMillis(timeoutSeconds));
+            if (exitValue == null) {
+                log.warning(command + " did not finish within " + timeoutSeconds + "s, killing");
+                process.destroy();
+            } else if (exitValue != 0) {
+                log.warning(command + " failed with exit code " + exitValue);
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to run " + command, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the process to finish; <code>Process.waitFor()</code> with a timeout is not available on Java 7, so poll instead.
+     * @return the exit value, null if the process is still running after the timeout.
+     */
+    private static Integer waitFor(Process process, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            try {
+                return process.exitValue();
+            } catch (IllegalThreadStateException e) {
+                // still running
+            }
+            final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return null;
+            }
+            Thread.sleep(Math.min(remainingMillis, 100));
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.vaadin.failover;
+
+/**
+ * Reacts to a surge of fail-over arrivals, see {@link FailoverSurge#addHook(SurgeHook)}. Typical reactions are to scale out,
+ * enlarge the executors or pause the background jobs. The hooks are called from a single background thread, never from a request
+ * thread; a slow hook delays the other hooks but not the requests.
+ * @author mavi
+ */
+public interface SurgeHook {
+    /**
+     * A surge has started: the arrival rate or the new-session rate went over the threshold.
+     * @param arrivalsPerSecond the current rate of the fail-over arrivals.
+     * @param sessionsPerSecond the current rate of the new sessions.
+     */
+    void onSurgeStarted(double arrivalsPerSecond, double sessionsPerSecond);
+
+    /**
+     * The surge is over: both rates fell below half of their thresholds.
+     */
+    void onSurgeEnded();
+}
@@ -0,0 +1,14 @@
+package com.vaadin.failover;
+
+/**
+ * A task which warms up the server before it reports itself ready for fail-over traffic, see {@link FailoverWarmup}.
+ * Typically performs synthetic requests (see {@link HttpWarmupTask}), fills caches or initializes lazy services.
+ * @author mavi
+ */
+public interface WarmupTask {
+    /**
+     * Performs the warm-up. Called from a background thread.
+     * @throws Exception if the warm-up failed. The failure is logged; it does not prevent the server from becoming ready.
+     */
+    void warmUp() throws Exception;
+}
@@ -0,0 +1,398 @@
+package com.vaadin.failover.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.user.client.Window;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The fail-over process configuration, as seen by the client-side. Either taken from the {@link FailoverReconnectState}
+ * of the UI, or from the bootstrap page (see {@link #fromBootstrapPage()}) when the server uses the
+ * <code>FailoverBootstrapListener</code>.
+ * @author mavi
+ */
+public final class FailoverConfig {
+    /**
+     * The version of the bootstrap config format. Configs with any other version are ignored.
+     */
+    public static final int BOOTSTRAP_CONFIG_VERSION = 2;
+
+    /**
+     * The name of the global JavaScript variable which holds the bootstrap config.
+     */
+    public static final String BOOTSTRAP_CONFIG_VARIABLE = "vaadinFailover";
+
+    /**
+     * The nodes to reconnect to, not null, may be empty. Add via {@link #addEndpoint(FailoverEndpoint)}.
+     */
+    public final List<FailoverEndpoint> endpoints = new ArrayList<>();
+    /**
+     * The URLs of the {@link #endpoints}, in the same order; not null, may be empty.
+     */
+    public final List<String> urls = new ArrayList<>();
+    /**
+     * See {@link FailoverReconnectState#randomRobin}.
+     */
+    public boolean randomRobin = true;
+    /**
+     * See {@link FailoverReconnectState#infinite}.
+     */
+    public boolean infinite = true;
+    /**
+     * See {@link FailoverReconnectState#pingMillis}.
+     */
+    public int pingMillis = 10000;
+    /**
+     * See {@link FailoverReconnectState#pingImagePath}.
+     */
+    public String pingImagePath = null;
+    /**
+     * See {@link FailoverReconnectState#telemetryPath}.
+     */
+    public String telemetryPath = null;
+    /**
+     * See {@link FailoverReconnectState#logLevel}.
+     */
+    public LogLevel logLevel = LogLevel.INFO;
+    /**
+     * See {@link FailoverReconnectState#logToConsole}.
+     */
+    public boolean logToConsole = true;
+    /**
+     * See {@link FailoverReconnectState#initialNodeSelection}.
+     */
+    public boolean initialNodeSelection = false;
+    /**
+     * See {@link FailoverReconnectState#initialNodeSelectionBudgetMillis}.
+     */
+    public int initialNodeSelectionBudgetMillis = 1000;
+    /**
+     * See {@link FailoverReconnectState#loadPath}.
+     */
+    public String loadPath = null;
+    /**
+     * See {@link FailoverReconnectState#healthPort}.
+     */
+    public int healthPort = 0;
+    /**
+     * See {@link FailoverReconnectState#hotStandby}.
+     */
+    public boolean hotStandby = false;
+    /**
+     * See {@link FailoverReconnectState#hotStandbyKeepaliveMillis}.
+     */
+    public int hotStandbyKeepaliveMillis = 120000;
+    /**
+     * See {@link FailoverReconnectState#inPlaceReattach}.
+     */
+    public boolean inPlaceReattach = false;
+    /**
+     * See {@link FailoverReconnectState#workerProbing}.
+     */
+    public boolean workerProbing = false;
+    /**
+     * See {@link FailoverReconnectState#handoffToken}. Never present in the bootstrap page, since the token is per-user.
+     */
+    public String handoffToken = null;
+    /**
+     * See {@link FailoverReconnectState#suspectUrls}. Never present in the bootstrap page, since it changes over time.
+     */
+    public final List<String> suspectUrls = new ArrayList<>();
+
+    /**
+     * Takes the configuration from the UI state.
+     * @param state the state, not null.
+     * @return the configuration, not null.
+     */
+    public static FailoverConfig fromState(FailoverReconnectState state) {
+        final FailoverConfig config = new FailoverConfig();
+        for (FailoverEndpoint endpoint : state.endpoints) {
+            config.addEndpoint(endpoint);
+        }
+        config.randomRobin = state.randomRobin;
+        config.infinite = state.infinite;
+        config.pingMillis = state.pingMillis;
+        config.pingImagePath = state.pingImagePath;
+        config.telemetryPath = state.telemetryPath;
+        config.logLevel = state.logLevel;
+        config.logToConsole = state.logToConsole;
+        config.initialNodeSelection = state.initialNodeSelection;
+        config.initialNodeSelectionBudgetMillis = state.initialNodeSelectionBudgetMillis;
+        config.loadPath = state.loadPath;
+        config.healthPort = state.healthPort;
+        config.hotStandby = state.hotStandby;
+        config.hotStandbyKeepaliveMillis = state.hotStandbyKeepaliveMillis;
+        config.inPlaceReattach = state.inPlaceReattach;
+        config.workerProbing = state.workerProbing;
+        config.handoffToken = state.handoffToken;
+        config.suspectUrls.addAll(state.suspectUrls);
+        return config;
+    }
+
+    /**
+     * Reads the configuration embedded in the bootstrap page by the <code>FailoverBootstrapListener</code>. The configuration is available
+     * right after the page loads, before the first UIDL request is made.
+     * @return the configuration or null if the bootstrap page contains none (or contains an incompatible version).
+     */
+    public static FailoverConfig fromBootstrapPage() {
+        final JavaScriptObject jso = getBootstrapConfig(BOOTSTRAP_CONFIG_VARIABLE);
+        if (jso == null || getInt(jso, "v", -1) != BOOTSTRAP_CONFIG_VERSION) {
+            return null;
+        }
+        final FailoverConfig config = new FailoverConfig();
+        final int endpointCount = getEndpointCount(jso);
+        for (int i = 0; i < endpointCount; i++) {
+            final JavaScriptObject e = getEndpoint(jso, i);
+            final FailoverEndpoint endpoint = new FailoverEndpoint(getString(e, "url"));
+            endpoint.probePath = getString(e, "probePath");
+            final String strategy = getString(e, "strategy");
+            if (strategy != null) {
+                try {
+                    endpoint.strategy = FailoverEndpoint.Strategy.valueOf(strategy);
+                } catch (IllegalArgumentException ex) {
+                    FailoverLog.warn("Unknown probe strategy " + strategy);
+                }
+            }
+            endpoint.timeoutMillis = getInt(e, "timeoutMillis", endpoint.timeoutMillis);
+            endpoint.weight = getInt(e, "weight", endpoint.weight);
+            endpoint.zone = getString(e, "zone");
+            endpoint.version = getString(e, "version");
+            if (endpoint.url != null) {
+                config.addEndpoint(endpoint);
+            }
+        }
+        config.randomRobin = getBoolean(jso, "randomRobin", config.randomRobin);
+        config.infinite = getBoolean(jso, "infinite", config.infinite);
+        config.pingMillis = getInt(jso, "pingMillis", config.pingMillis);
+        config.pingImagePath = getString(jso, "pingImagePath");
+        config.telemetryPath = getString(jso, "telemetryPath");
+        final String logLevel = getString(jso, "logLevel");
+        if (logLevel != null) {
+            try {
+                config.logLevel = LogLevel.valueOf(logLevel);
+            } catch (IllegalArgumentException e) {
+                FailoverLog.warn("Unknown log level " + logLevel);
+            }
+        }
+        config.logToConsole = getBoolean(jso, "logToConsole", config.logToConsole);
+        config.initialNodeSelection = getBoolean(jso, "initialNodeSelection", config.initialNodeSelection);
+        config.initialNodeSelectionBudgetMillis = getInt(jso, "initialNodeSelectionBudgetMillis", config.initialNodeSelectionBudgetMillis);
+        config.loadPath = getString(jso, "loadPath");
+        config.healthPort = getInt(jso, "healthPort", config.healthPort);
+        config.hotStandby = getBoolean(jso, "hotStandby", config.hotStandby);
+        config.hotStandbyKeepaliveMillis = getInt(jso, "hotStandbyKeepaliveMillis", config.hotStandbyKeepaliveMillis);
+        config.inPlaceReattach = getBoolean(jso, "inPlaceReattach", config.inPlaceReattach);
+        config.workerProbing = getBoolean(jso, "workerProbing", config.workerProbing);
+        return config;
+    }
+
+    /**
+     * Adds a node to reconnect to.
+     * @param endpoint the node, not null.
+     */
+    public void addEndpoint(FailoverEndpoint endpoint) {
+        endpoints.add(endpoint);
+        urls.add(endpoint.url);
+    }
+
+    /**
+     * Finds the node with given URL.
+     * @param url the URL, not null.
+     * @return the node, null if there is no such node in {@link #endpoints}.
+     */
+    public FailoverEndpoint getEndpoint(String url) {
+        for (FailoverEndpoint endpoint : endpoints) {
+            if (url.equals(endpoint.url)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the URL of the node this page is connected to: either the spare this page has been re-attached to, or the configured URL
+     * whose origin matches the page's and whose path contains the page. When several URLs match (e.g. two applications on one host),
+     * the one with the longest path wins.
+     * @return one of the {@link #urls}, null if this page has been served by a node which is not listed.
+     */
+    public String getCurrentUrl() {
+        final String attachedUrl = InPlaceReattach.getAttachedUrl();
+        if (attachedUrl != null) {
+            return attachedUrl;
+        }
+        final String href = Window.Location.getHref();
+        final String origin = getOrigin(href);
+        final String path = getPath(href);
+        String best = null;
+        int bestLength = -1;
+        for (String url : urls) {
+            if (!origin.equals(getOrigin(url))) {
+                continue;
+            }
+            String urlPath = getPath(url);
+            if (urlPath.endsWith("/")) {
+                urlPath = urlPath.substring(0, urlPath.length() - 1);
+            }
+            if ((path.equals(urlPath) || path.startsWith(urlPath + "/")) && urlPath.length() > bestLength) {
+                best = url;
+                bestLength = urlPath.length();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the origin of given absolute URL: the lower-cased scheme, host and port, the port omitted if it's the default one.
+     */
+    private static String getOrigin(String url) {
+        final int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 0) {
+            return "";
+        }
+        final String scheme = url.substring(0, schemeEnd).toLowerCase();
+        String host = url.substring(schemeEnd + 3, getPathStart(url, schemeEnd + 3)).toLowerCase();
+        if (("http".equals(scheme) && host.endsWith(":80")) || ("https".equals(scheme) && host.endsWith(":443"))) {
+            host = host.substring(0, host.lastIndexOf(':'));
+        }
+        return scheme + "://" + host;
+    }
+
+    /**
+     * Returns the path of given absolute URL, without the query and the fragment; empty if the URL has no path.
+     */
+    private static String getPath(String url) {
+        final int schemeEnd = url.indexOf("://");
+        final int pathStart = getPathStart(url, schemeEnd < 0 ? 0 : schemeEnd + 3);
+        int pathEnd = url.length();
+        for (char c : new char[]{'?', '#'}) {
+            final int index = url.indexOf(c, pathStart);
+            if (index >= 0 && index < pathEnd) {
+                pathEnd = index;
+            }
+        }
+        return pathStart < pathEnd && url.charAt(pathStart) == '/' ? url.substring(pathStart, pathEnd) : "";
+    }
+
+    private static int getPathStart(String url, int authorityStart) {
+        for (int i = authorityStart; i < url.length(); i++) {
+            final char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return url.length();
+    }
+
+    /**
+     * Finds the node this page is connected to.
+     * @return the node, null if this page has been served by a node which is not in {@link #endpoints}.
+     */
+    public FailoverEndpoint getCurrentEndpoint() {
+        final String currentUrl = getCurrentUrl();
+        return currentUrl == null ? null : getEndpoint(currentUrl);
+    }
+
+    /**
+     * Returns the probe timeout of given node.
+     * @param url the URL of the node, not null.
+     * @return {@link FailoverEndpoint#timeoutMillis} if set, {@link #pingMillis} otherwise.
+     */
+    public int getPingMillis(String url) {
+        final FailoverEndpoint endpoint = getEndpoint(url);
+        return endpoint != null && endpoint.timeoutMillis > 0 ? endpoint.timeoutMillis : pingMillis;
+    }
+
+    /**
+     * Creates the strategy to probe given node with, see {@link #getProbeUrl(String)}.
+     * @param url the URL of the node, not null.
+     * @return the strategy, not null. Each ping requires a new instance.
+     */
+    public PingStrategy createPingStrategy(String url) {
+        final FailoverEndpoint endpoint = getEndpoint(url);
+        final FailoverEndpoint.Strategy strategy = endpoint == null ? FailoverEndpoint.Strategy.DEFAULT : endpoint.strategy;
+        final String probePath = endpoint == null ? null : endpoint.probePath;
+        final boolean image;
+        final String path;
+        switch (strategy) {
+            case AJAX:
+                image = false;
+                path = probePath;
+                break;
+            case IMAGE:
+                path = probePath != null ? probePath : pingImagePath;
+                image = path != null;
+                break;
+            default:
+                image = pingImagePath != null;
+                path = probePath != null ? probePath : pingImagePath;
+        }
+        if (workerProbing && FailoverWorker.get() != null) {
+            // the health responder serves CORS even for the image path
+            return new PingStrategy.WorkerStrategy(path, !image || healthPort != 0);
+        }
+        return image ? new PingStrategy.ImageStrategy(path) : new PingStrategy.AjaxStrategy(path);
+    }
+
+    /**
+     * Computes the URL to probe in order to find out whether given URL is alive.
+     * @param url the URL, e.g. <code>http://server2:8080/myapp</code>; not null.
+     * @return the URL itself if {@link #healthPort} is 0; otherwise the scheme and host of the URL with the {@link #healthPort},
+     * e.g. <code>http://server2:8081</code>.
+     */
+    public String getProbeUrl(String url) {
+        return getProbeUrl(url, healthPort);
+    }
+
+    /**
+     * Maps the node URL to the URL to probe; shared with the server-side <code>FailoverEndpointProber</code>.
+     * @param url the URL of the node, not null.
+     * @param healthPort see {@link #healthPort}.
+     * @return the URL itself if <code>healthPort</code> is 0, otherwise the scheme and the host of the URL with the port replaced
+     * by <code>healthPort</code>, without the path.
+     */
+    public static String getProbeUrl(String url, int healthPort) {
+        if (healthPort == 0) {
+            return url;
+        }
+        final int hostStart = url.indexOf("//");
+        if (hostStart < 0) {
+            return url;
+        }
+        int hostEnd = url.indexOf('/', hostStart + 2);
+        if (hostEnd < 0) {
+            hostEnd = url.length();
+        }
+        String host = url.substring(hostStart + 2, hostEnd);
+        // strip the port; mind the IPv6 literals such as [::1]:8080
+        final int portStart = host.lastIndexOf(':');
+        if (portStart > host.lastIndexOf(']')) {
+            host = host.substring(0, portStart);
+        }
+        return url.substring(0, hostStart + 2) + host + ":" + healthPort;
+    }
+
+    private static native JavaScriptObject getBootstrapConfig(String variable) /*-{
+        return $wnd[variable] || null;
+    }-*/;
+
+    private static native int getEndpointCount(JavaScriptObject jso) /*-{
+        return jso.endpoints ? jso.endpoints.length : 0;
+    }-*/;
+
+    private static native JavaScriptObject getEndpoint(JavaScriptObject jso, int index) /*-{
+        return jso.endpoints[index];
+    }-*/;
+
+    private static native boolean getBoolean(JavaScriptObject jso, String name, boolean defaultValue) /*-{
+        return typeof jso[name] === 'boolean' ? jso[name] : defaultValue;
+    }-*/;
+
+    private static native int getInt(JavaScriptObject jso, String name, int defaultValue) /*-{
+        return typeof jso[name] === 'number' ? jso[name] : defaultValue;
+    }-*/;
+
+    private static native String getString(JavaScriptObject jso, String name) /*-{
+        return typeof jso[name] === 'string' ? jso[name] : null;
+    }-*/;
+}
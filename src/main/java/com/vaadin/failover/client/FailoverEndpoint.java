@@ -0,0 +1,99 @@
+package com.vaadin.failover.client;
+
+import java.io.Serializable;
+
+/**
+ * Describes one node to fail over to: its URL and how to probe it. The probe settings override the global ones
+ * ({@link FailoverReconnectState#pingImagePath}, {@link FailoverReconnectState#pingMillis}) for this node only.
+ * Shared by the server and the client.
+ * @author mavi
+ */
+public class FailoverEndpoint implements Serializable {
+    /**
+     * How to probe the node.
+     */
+    public enum Strategy {
+        /**
+         * The Image ping if {@link FailoverReconnectState#pingImagePath} is set, the Ajax ping otherwise. {@link #probePath} (if any)
+         * is used instead of the global image path.
+         */
+        DEFAULT,
+        /**
+         * The Ajax ping, see {@link PingStrategy.AjaxStrategy}; {@link #probePath} (if any) is appended to the URL.
+         */
+        AJAX,
+        /**
+         * The Image ping, see {@link PingStrategy.ImageStrategy}; {@link #probePath} (or {@link FailoverReconnectState#pingImagePath}
+         * if null) must point to an image. Falls back to the Ajax ping if both are null.
+         */
+        IMAGE
+    }
+
+    /**
+     * The URL to fail over to, must start with http:// or https://
+     */
+    public String url;
+    /**
+     * Appended to the {@link #url} when probing; null to use the global settings.
+     */
+    public String probePath = null;
+    /**
+     * How to probe the node, not null.
+     */
+    public Strategy strategy = Strategy.DEFAULT;
+    /**
+     * The probe timeout in milliseconds; 0 to use {@link FailoverReconnectState#pingMillis}.
+     */
+    public int timeoutMillis = 0;
+    /**
+     * The relative weight of the node when {@link FailoverReconnectState#randomRobin} is enabled: a node with weight 2 is picked
+     * first twice as often as a node with weight 1. Nodes with weight 0 are only tried after all other nodes. Defaults to 1.
+     */
+    public int weight = 1;
+    /**
+     * The zone (e.g. the data center) of the node, may be null. Nodes in the zone of the current node are tried first.
+     */
+    public String zone = null;
+    /**
+     * The application version the node runs, may be null. The in-place re-attach (see {@link FailoverReconnectState#inPlaceReattach})
+     * is only used for the nodes running the same version as the current node; other nodes are redirected to.
+     */
+    public String version = null;
+    /**
+     * The outcome of the most recent probe performed by the server: true if the node is alive, false if it is dead,
+     * null if unknown or too old. Maintained by the server-side <code>FailoverEndpointProber</code>. The nodes known to be dead are tried last.
+     */
+    public Boolean healthy = null;
+
+    public FailoverEndpoint() {
+    }
+
+    /**
+     * Creates the endpoint with the default probe settings.
+     * @param url the URL, must start with http:// or https://
+     */
+    public FailoverEndpoint(String url) {
+        this.url = url;
+    }
+
+    /**
+     * Creates a copy of given endpoint.
+     * @param other the endpoint to copy, not null.
+     */
+    public FailoverEndpoint(FailoverEndpoint other) {
+        url = other.url;
+        probePath = other.probePath;
+        strategy = other.strategy;
+        timeoutMillis = other.timeoutMillis;
+        weight = other.weight;
+        zone = other.zone;
+        version = other.version;
+        healthy = other.healthy;
+    }
+
+    @Override
+    public String toString() {
+        return "FailoverEndpoint{" + url + ", probePath=" + probePath + ", strategy=" + strategy + ", timeoutMillis=" + timeoutMillis
+                + ", weight=" + weight + ", zone=" + zone + ", version=" + version + ", healthy=" + healthy + '}';
+    }
+}
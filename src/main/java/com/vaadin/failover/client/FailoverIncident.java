@@ -0,0 +1,129 @@
+package com.vaadin.failover.client;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+
+/**
+ * Records the timings of one fail-over incident: when the connection loss was detected, the recent probes performed (URL, round-trip
+ * time, outcome), the number of cycles over the URL list and the time of redirect. The record is sent to the server the browser is
+ * redirected to, see {@link #sendBeacon(String, String)}, together with the recent {@link FailoverLog} messages. The record carries
+ * a random {@link #getId() ID} which the browser also passes to that server on arrival, so that the server can tell the records of
+ * the browsers which actually arrived from the forged ones.
+ * @author mavi
+ */
+final class FailoverIncident {
+    /**
+     * The version of the JSON format produced by {@link #toJson(String)}.
+     */
+    static final int VERSION = 1;
+    /**
+     * Only this many most recent probes are sent; the older ones are dropped. Keeps the record of a long outage
+     * well below the 64kb limit of <code>navigator.sendBeacon()</code>.
+     */
+    static final int MAX_PROBES = 50;
+
+    /**
+     * When the connection loss was detected; the fail-over process itself may have been started later (by the user).
+     */
+    private final long detectedAt;
+    /**
+     * When the first fail-over cycle started, -1 if not yet.
+     */
+    private long startedAt = -1;
+    private int cycles = 0;
+    /**
+     * The most recent {@link #MAX_PROBES} probes.
+     */
+    private final JsonArray probes = Json.createArray();
+    private final String id = createId();
+
+    FailoverIncident() {
+        detectedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the random ID of this incident, 32 hexadecimal digits; must pass the server-side <code>FailoverTelemetry.isValidIncidentId()</code>.
+     */
+    String getId() {
+        return id;
+    }
+
+    private static native String createId() /*-{
+        var bytes = new Array(16);
+        var crypto = $wnd.crypto || $wnd.msCrypto;
+        if (crypto && crypto.getRandomValues && $wnd.Uint8Array) {
+            bytes = crypto.getRandomValues(new $wnd.Uint8Array(16));
+        } else {
+            for (var i = 0; i < 16; i++) {
+                bytes[i] = Math.floor(Math.random() * 256);
+            }
+        }
+        var id = '';
+        for (var j = 0; j < 16; j++) {
+            id += (bytes[j] < 16 ? '0' : '') + bytes[j].toString(16);
+        }
+        return id;
+    }-*/;
+
+    /**
+     * Called when a new cycle over the URL list begins.
+     */
+    void onCycleStarted() {
+        if (startedAt < 0) {
+            startedAt = System.currentTimeMillis();
+        }
+        cycles++;
+    }
+
+    /**
+     * Records the outcome of one probe.
+     * @param url the URL probed, not null.
+     * @param rttMillis the time it took to obtain the outcome.
+     * @param alive true if the URL was found alive, false if it failed or timed out.
+     */
+    void onProbe(String url, long rttMillis, boolean alive) {
+        final JsonObject probe = Json.createObject();
+        probe.put("url", url);
+        probe.put("rtt", rttMillis);
+        probe.put("ok", alive);
+        if (probes.length() >= MAX_PROBES) {
+            probes.remove(0);
+        }
+        probes.set(probes.length(), probe);
+    }
+
+    /**
+     * Produces the telemetry record. Durations are sent rather than timestamps since the clocks of the browser and the server may differ.
+     * @param redirectUrl the URL we are redirecting to, not null.
+     * @return the JSON record, not null.
+     */
+    String toJson(String redirectUrl) {
+        final long now = System.currentTimeMillis();
+        final long started = startedAt < 0 ? now : startedAt;
+        final JsonObject record = Json.createObject();
+        record.put("v", VERSION);
+        record.put("id", id);
+        record.put("detectionToStartMillis", started - detectedAt);
+        record.put("startToRedirectMillis", now - started);
+        record.put("timeToRedirectMillis", now - detectedAt);
+        record.put("cycles", cycles);
+        record.put("redirectUrl", redirectUrl);
+        record.put("probes", probes);
+        record.put("log", FailoverLog.getRecent());
+        return record.toJson();
+    }
+
+    /**
+     * Sends given data via <code>navigator.sendBeacon()</code>, which survives the page unload caused by the redirect.
+     * @param url the receiver URL, not null.
+     * @param data the data to send.
+     * @return true if the browser queued the data for sending, false if the browser does not support beacons or refused the data.
+     */
+    static native boolean sendBeacon(String url, String data) /*-{
+        if (!$wnd.navigator.sendBeacon) {
+            return false;
+        }
+        return $wnd.navigator.sendBeacon(url, data);
+    }-*/;
+}
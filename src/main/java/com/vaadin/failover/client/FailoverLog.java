@@ -0,0 +1,129 @@
+package com.vaadin.failover.client;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+
+/**
+ * A leveled logger for the client-side fail-over logic. Messages below the active {@link LogLevel} are dropped; callers are expected
+ * to guard messages which are expensive to build, e.g. <code>if (FailoverLog.isDebugEnabled()) FailoverLog.debug("..." + response.getText())</code>,
+ * so that the disabled messages cost nothing.
+ * <p>
+ * The recent messages are kept in a fixed-size ring buffer. The buffer can be dumped on demand, by calling
+ * <code>vaadinFailoverDumpLog()</code> from the browser console, and is attached to the fail-over telemetry record.
+ * @author mavi
+ */
+public final class FailoverLog {
+    /**
+     * The capacity of the ring buffer.
+     */
+    public static final int CAPACITY = 50;
+    /**
+     * Longer messages are truncated before being stored in the ring buffer.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 500;
+
+    private static LogLevel level = LogLevel.INFO;
+    private static boolean console = true;
+    private static final String[] buffer = new String[CAPACITY];
+    /**
+     * The index in {@link #buffer} where the next message goes.
+     */
+    private static int next = 0;
+    /**
+     * The number of messages in {@link #buffer}, at most {@link #CAPACITY}.
+     */
+    private static int size = 0;
+
+    static {
+        exportDump();
+    }
+
+    private FailoverLog() {
+    }
+
+    /**
+     * Configures the logger.
+     * @param level messages below this level are dropped, not null.
+     * @param console if true, messages are also written to the browser console.
+     */
+    public static void configure(LogLevel level, boolean console) {
+        FailoverLog.level = level;
+        FailoverLog.console = console;
+    }
+
+    public static boolean isEnabled(LogLevel messageLevel) {
+        return messageLevel.ordinal() >= level.ordinal() && messageLevel != LogLevel.OFF;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public static void debug(String message) {
+        log(LogLevel.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        log(LogLevel.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(LogLevel.WARN, message);
+    }
+
+    public static void warn(String message, Throwable ex) {
+        if (isEnabled(LogLevel.WARN)) {
+            log(LogLevel.WARN, message + ": " + ex);
+        }
+    }
+
+    private static void log(LogLevel messageLevel, String message) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        final String entry = System.currentTimeMillis() + " " + messageLevel + " " + message;
+        buffer[next] = entry.length() > MAX_MESSAGE_LENGTH ? entry.substring(0, MAX_MESSAGE_LENGTH) : entry;
+        next = (next + 1) % CAPACITY;
+        size = Math.min(size + 1, CAPACITY);
+        if (console) {
+            consoleLog(entry);
+        }
+    }
+
+    /**
+     * Returns the recent messages, oldest first.
+     * @return the messages as a JSON array of strings, not null.
+     */
+    public static JsonArray getRecent() {
+        final JsonArray result = Json.createArray();
+        for (int i = 0; i < size; i++) {
+            result.set(i, buffer[(next - size + i + CAPACITY) % CAPACITY]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the recent messages, oldest first, one message per line.
+     * @return the messages, not null.
+     */
+    public static String dump() {
+        final StringBuilder sb = new StringBuilder();
+        final JsonArray recent = getRecent();
+        for (int i = 0; i < recent.length(); i++) {
+            sb.append(recent.getString(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static native void consoleLog(String message) /*-{
+        if ($wnd.console) {
+            $wnd.console.log(message);
+        }
+    }-*/;
+
+    private static native void exportDump() /*-{
+        $wnd.vaadinFailoverDumpLog = $entry(function() {
+            return @com.vaadin.failover.client.FailoverLog::dump()();
+        });
+    }-*/;
+}
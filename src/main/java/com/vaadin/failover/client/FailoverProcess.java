@@ -0,0 +1,234 @@
+package com.vaadin.failover.client;
+
+import com.google.gwt.user.client.Timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs the fail-over process for the whole page. There is only one instance per page, see {@link #get()}: the process may be
+ * started by {@link FailoverReconnectConnector} (configured from the UI state), or by {@link FailoverReconnectDialog} directly
+ * when the connection died before the first UIDL response arrived (configured from the bootstrap page).
+ * @author mavi
+ */
+public final class FailoverProcess {
+    private static FailoverProcess instance;
+
+    /**
+     * Returns the page-wide fail-over process.
+     * @return the process, not null.
+     */
+    public static FailoverProcess get() {
+        if (instance == null) {
+            instance = new FailoverProcess();
+        }
+        return instance;
+    }
+
+    private FailoverProcess() {
+    }
+
+    /**
+     * When {@link #start(FailoverConfig)} is called, these listeners are notified for status updates.
+     */
+    public final LinkedList<FailoverReconnectConnector.StatusListener> statusListeners = new LinkedList<>();
+
+    /**
+     * Only applicable when {@link FailoverConfig#infinite} is true.
+     * When none of the URLs are up, back off a bit before trying again.
+     * This is especially useful after getting a rapid stream of "connection refused" from the browser.
+     */
+    private Timer startOverBackOffTimer = null;
+    /**
+     * The back-off delay measured by the {@link FailoverWorker} instead of {@link #startOverBackOffTimer}; -1 if none.
+     */
+    private int startOverBackOffWorkerId = -1;
+
+    private LiveUrlFinder liveUrlFinder = null;
+
+    /**
+     * The timings of the ongoing fail-over incident; null if the connection is fine and no fail-over is ongoing.
+     */
+    private FailoverIncident incident = null;
+
+    /**
+     * Notifies the process that the connection to the server has been lost. Marks the beginning of the fail-over incident;
+     * the fail-over itself may be started later on.
+     */
+    public void onConnectionLost() {
+        if (incident == null) {
+            incident = new FailoverIncident();
+        }
+    }
+
+    /**
+     * Notifies the process that the connection to the server is fine. Cancels the ongoing fail-over (if any) and ends the incident.
+     */
+    public void onConnectionRestored() {
+        cancel();
+        incident = null;
+    }
+
+    /**
+     * Checks whether there is a reconnection process ongoing.
+     * @return true if we are currently reconnecting, false if not.
+     */
+    public boolean isOngoing() {
+        return liveUrlFinder != null;
+    }
+
+    /**
+     * Begins the fail-over process. Does nothing if the process is already ongoing.
+     * @param config the configuration, not null.
+     */
+    public void start(final FailoverConfig config) {
+        if (isOngoing() || HotStandby.isStandbyFrame()) {
+            // the standby UI simply waits for the next keepalive reload
+            return;
+        }
+        FailoverLog.configure(config.logLevel, config.logToConsole);
+        // compute the list of reconnection URLs
+        final List<FailoverEndpoint> endpoints = new ArrayList<>(config.endpoints);
+        if (config.randomRobin) {
+            shuffle(endpoints);
+        }
+        final FailoverEndpoint current = config.getCurrentEndpoint();
+        if (current != null && current.zone != null) {
+            // prefer the nodes in our zone; keep the order otherwise.
+            final List<FailoverEndpoint> otherZones = new ArrayList<>();
+            for (Iterator<FailoverEndpoint> it = endpoints.iterator(); it.hasNext(); ) {
+                final FailoverEndpoint endpoint = it.next();
+                if (!current.zone.equals(endpoint.zone)) {
+                    it.remove();
+                    otherZones.add(endpoint);
+                }
+            }
+            endpoints.addAll(otherZones);
+        }
+        // try the nodes which other browsers (or the server) found dead last; keep the order otherwise.
+        final List<String> urls = new ArrayList<>();
+        final List<String> suspects = new ArrayList<>();
+        for (FailoverEndpoint endpoint : endpoints) {
+            if (config.suspectUrls.contains(endpoint.url) || Boolean.FALSE.equals(endpoint.healthy)) {
+                suspects.add(endpoint.url);
+            } else {
+                urls.add(endpoint.url);
+            }
+        }
+        urls.addAll(suspects);
+        final String standbyUrl = HotStandby.get().getUrl();
+        if (standbyUrl != null && urls.remove(standbyUrl)) {
+            // the spare with the standby UI is the fastest to recover to
+            urls.add(0, standbyUrl);
+        }
+        if (urls.isEmpty()) {
+            for (FailoverReconnectConnector.StatusListener listener : statusListeners) {
+                listener.onGaveUp();
+            }
+            return;
+        }
+        if (incident == null) {
+            // the fail-over has been started directly, not by the reconnect dialog.
+            incident = new FailoverIncident();
+        }
+        incident.onCycleStarted();
+        // start the liveUrlFinder process
+        final FailoverReconnectConnector.StatusListener listener = new FailoverReconnectConnector.StatusListener() {
+            @Override
+            public void onStatus(String message) {
+                for (FailoverReconnectConnector.StatusListener listener : statusListeners) {
+                    listener.onStatus(message);
+                }
+            }
+
+            @Override
+            public void onGaveUp() {
+                // we ran out of URLs.
+                // null the liveUrlFinder so that we can eventually start again
+                liveUrlFinder = null;
+                if (config.infinite) {
+                    // repeat the whole process but back off a bit
+                    // useful after getting a rapid stream of "connection refused" from the browser.
+                    final FailoverWorker worker = config.workerProbing ? FailoverWorker.get() : null;
+                    if (worker != null) {
+                        startOverBackOffWorkerId = worker.schedule(3000, new Runnable() {
+                            @Override
+                            public void run() {
+                                startOverBackOffWorkerId = -1;
+                                start(config);
+                            }
+                        });
+                    } else {
+                        startOverBackOffTimer = new Timer() {
+                            @Override
+                            public void run() {
+                                start(config);
+                            }
+                        };
+                        startOverBackOffTimer.schedule(3000);
+                    }
+                    for (FailoverReconnectConnector.StatusListener listener : statusListeners) {
+                        listener.onStatus("All servers appear to be down, retrying");
+                    }
+                } else {
+                    for (FailoverReconnectConnector.StatusListener listener : statusListeners) {
+                        listener.onGaveUp();
+                    }
+                }
+            }
+        };
+        liveUrlFinder = new LiveUrlFinder(listener, config, incident, LiveUrlFinder.ARRIVAL_FAILOVER);
+        liveUrlFinder.start(urls);
+    }
+
+    /**
+     * Cancels the currently ongoing failover process. Does nothing if there is no failover process ongoing.
+     */
+    public void cancel() {
+        if (liveUrlFinder != null) {
+            liveUrlFinder.cancel();
+            liveUrlFinder = null;
+        }
+        if (startOverBackOffTimer != null) {
+            startOverBackOffTimer.cancel();
+            startOverBackOffTimer = null;
+        }
+        if (startOverBackOffWorkerId >= 0) {
+            final FailoverWorker worker = FailoverWorker.get();
+            if (worker != null) {
+                worker.cancel(startOverBackOffWorkerId);
+            }
+            startOverBackOffWorkerId = -1;
+        }
+    }
+
+    /**
+     * Shuffles given nodes so that a node is more likely to come first the bigger its {@link FailoverEndpoint#weight} is. Nodes with
+     * zero weight always come last.
+     * @param endpoints the nodes to shuffle, not null.
+     */
+    private static void shuffle(List<FailoverEndpoint> endpoints) {
+        shuffle(endpoints, new Random());
+    }
+
+    static void shuffle(List<FailoverEndpoint> endpoints, Random rnd) {
+        // GWT does not implement Collections.shuffle(). Weighted random sampling: sort by random^(1/weight), descending.
+        final Map<FailoverEndpoint, Double> keys = new HashMap<>();
+        for (FailoverEndpoint endpoint : endpoints) {
+            keys.put(endpoint, endpoint.weight <= 0 ? -1 : Math.pow(rnd.nextDouble(), 1d / endpoint.weight));
+        }
+        Collections.sort(endpoints, new Comparator<FailoverEndpoint>() {
+            @Override
+            public int compare(FailoverEndpoint o1, FailoverEndpoint o2) {
+                return Double.compare(keys.get(o2), keys.get(o1));
+            }
+        });
+    }
+}
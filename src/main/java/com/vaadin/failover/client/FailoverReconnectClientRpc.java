@@ -16,4 +16,10 @@ public interface FailoverReconnectClientRpc extends ClientRpc {
      * Cancels the currently ongoing failover process. Does nothing if there is no failover process ongoing.
      */
     void cancelFailOver();
+    /**
+     * Moves the browser to given server, provided that the server is alive. Used to rebalance the load once the primary server recovers.
+     * No status listeners are notified; if the server is not alive, or the failover process is currently ongoing, this call does nothing.
+     * @param url the URL to move to, not null.
+     */
+    void migrateTo(String url);
 }
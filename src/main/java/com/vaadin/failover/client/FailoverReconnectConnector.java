@@ -1,16 +1,18 @@
 package com.vaadin.failover.client;
 
-import com.google.gwt.user.client.Timer;
 import com.vaadin.client.ServerConnector;
+import com.vaadin.client.communication.StateChangeEvent;
 import com.vaadin.client.extensions.AbstractExtensionConnector;
 import com.vaadin.client.ui.label.LabelConnector;
 import com.vaadin.failover.FailoverReconnectExtension;
 import com.vaadin.shared.ui.Connect;
 
-import java.util.*;
+import java.util.Collections;
+import java.util.LinkedList;
 
 /**
- * Implements the fail-over logic. {@link FailoverReconnectDialog} expects this extension to be attached to the UI class.
+ * Drives the fail-over logic ({@link FailoverProcess}) from the UI state. {@link FailoverReconnectDialog} expects this extension
+ * to be attached to the UI class, unless the fail-over configuration is embedded in the bootstrap page.
  * @author mavi
  */
 @Connect(FailoverReconnectExtension.class)
@@ -47,25 +49,18 @@ public class FailoverReconnectConnector extends AbstractExtensionConnector imple
         }
     }
 
+    private final DebugLabelStatusListener debugLabelStatusListener = new DebugLabelStatusListener();
+
     public FailoverReconnectConnector() {
         registerRpc(FailoverReconnectClientRpc.class, this);
-        statusListeners.add(new DebugLabelStatusListener());
+        statusListeners.add(debugLabelStatusListener);
     }
 
     /**
-     * When {@link #startFailOver()} is called, these listeners are notified for status updates.
-     */
-    public final LinkedList<StatusListener> statusListeners = new LinkedList<>();
-
-    /**
-     * Only applicable when {@link FailoverReconnectState#infinite} is true.
-     * When none of the URLs are up, back off a bit before trying again.
-     * This is especially useful after getting a rapid stream of "connection refused" from the browser.
+     * When {@link #startFailOver()} is called, these listeners are notified for status updates. The list is shared by the whole page,
+     * see {@link FailoverProcess#statusListeners}.
      */
-    private com.google.gwt.user.client.Timer startOverBackOffTimer = null;
-
-    @SuppressWarnings("GwtInconsistentSerializableClass")
-    private LiveUrlFinder liveUrlFinder = null;
+    public final LinkedList<StatusListener> statusListeners = FailoverProcess.get().statusListeners;
 
     @Override
     protected void extend(ServerConnector serverConnector) {
@@ -79,84 +74,98 @@ public class FailoverReconnectConnector extends AbstractExtensionConnector imple
         return (FailoverReconnectState) super.getState();
     }
 
+    @Override
+    public void onStateChanged(StateChangeEvent stateChangeEvent) {
+        super.onStateChanged(stateChangeEvent);
+        final FailoverConfig config = getFailoverConfig();
+        FailoverLog.configure(config.logLevel, config.logToConsole);
+        if (stateChangeEvent.isInitialStateChange() && !HotStandby.isStandbyFrame()) {
+            InitialNodeSelector.run(config);
+            LiveUrlFinder.removeArrivalParameters();
+        } else if (stateChangeEvent.isInitialStateChange()) {
+            HotStandby.listenForKeepalive(getConnection());
+        }
+        HotStandby.get().configure(config);
+    }
+
+    @Override
+    public void onUnregister() {
+        release();
+        super.onUnregister();
+    }
+
+    /**
+     * Removes this connector's hooks from the page-wide fail-over machinery. Called when the connector is unregistered, and by
+     * {@link InPlaceReattach} which abandons the old application without unregistering its connectors. Once the application
+     * has stopped, the XHR patch of the in-place re-attach is undone as well; while it runs, it still needs the credentials
+     * for the spare.
+     */
+    void release() {
+        statusListeners.remove(debugLabelStatusListener);
+        HotStandby.get().stop();
+        if (!getConnection().isApplicationRunning()) {
+            InPlaceReattach.release();
+        }
+    }
+
+    /**
+     * Returns the fail-over configuration. The UI state takes precedence; if it lists no URLs, the configuration embedded
+     * in the bootstrap page is used instead.
+     * @return the configuration, not null.
+     */
+    public FailoverConfig getFailoverConfig() {
+        if (getState().endpoints.isEmpty()) {
+            final FailoverConfig bootstrapConfig = FailoverConfig.fromBootstrapPage();
+            if (bootstrapConfig != null) {
+                // the handoff token is per-user and the suspects change over time, therefore they always come from the state
+                bootstrapConfig.handoffToken = getState().handoffToken;
+                bootstrapConfig.suspectUrls.addAll(getState().suspectUrls);
+                return bootstrapConfig;
+            }
+        }
+        return FailoverConfig.fromState(getState());
+    }
+
     /**
      * Checks whether there is a reconnection process ongoing.
      * @return true if we are currently reconnecting, false if not.
      */
     public boolean isReconnectionOngoing() {
-        return liveUrlFinder != null;
+        return FailoverProcess.get().isOngoing();
     }
 
     @Override
     public void startFailOver() {
+        FailoverProcess.get().start(getFailoverConfig());
+    }
+
+    @Override
+    public void cancelFailOver() {
+        // the request came from the server, so the connection is evidently fine.
+        FailoverProcess.get().onConnectionRestored();
+    }
+
+    @Override
+    public void migrateTo(final String url) {
         if (isReconnectionOngoing()) {
             return;
         }
-        // compute the list of reconnection URLs
-        final List<String> urls = new ArrayList<>(getState().urls);
-        if (getState().randomRobin) {
-            shuffle(urls);
-        }
-        if (urls.isEmpty()) {
-            for (StatusListener listener : statusListeners) {
-                listener.onGaveUp();
-            }
-            return;
-        }
-        // start the liveUrlFinder process
-        final StatusListener listener = new StatusListener() {
+        final FailoverConfig config = getFailoverConfig();
+        // this is not a fail-over incident, do not report it.
+        config.telemetryPath = null;
+        final LiveUrlFinder finder = new LiveUrlFinder(new StatusListener() {
             @Override
             public void onStatus(String message) {
-                for (StatusListener listener : statusListeners) {
-                    listener.onStatus(message);
-                }
             }
 
             @Override
             public void onGaveUp() {
-                // we ran out of URLs.
-                // null the liveUrlFinder so that we can eventually start again
-                liveUrlFinder = null;
-                if (getState().infinite) {
-                    // repeat the whole process but back off a bit
-                    // useful after getting a rapid stream of "connection refused" from the browser.
-                    startOverBackOffTimer = new Timer() {
-                        @Override
-                        public void run() {
-                            startFailOver();
-                        }
-                    };
-                    startOverBackOffTimer.schedule(3000);
-                    for (StatusListener listener : statusListeners) {
-                        listener.onStatus("All servers appear to be down, retrying");
-                    }
-                } else {
-                    for (StatusListener listener : statusListeners) {
-                        listener.onGaveUp();
-                    }
+                if (FailoverLog.isEnabled(LogLevel.INFO)) {
+                    FailoverLog.info("Not migrating to " + url + ": the server appears to be down");
                 }
             }
-        };
-        liveUrlFinder = new LiveUrlFinder(listener, getState().pingMillis, getState().pingImagePath);
-        liveUrlFinder.start(urls);
-    }
-
-    @Override
-    public void cancelFailOver() {
-        if (liveUrlFinder != null) {
-            liveUrlFinder.cancel();
-            liveUrlFinder = null;
-        }
-        if (startOverBackOffTimer != null) {
-            startOverBackOffTimer.cancel();
-            startOverBackOffTimer = null;
-        }
-    }
-
-    private static <T> void shuffle(List<T> list) {
-        // GWT does not implement Collections.shuffle()
-        final Random rnd = new Random();
-        for (int i = list.size(); i > 1; i--)
-            Collections.swap(list, i - 1, rnd.nextInt(i));
+        }, config, new FailoverIncident(), LiveUrlFinder.ARRIVAL_MIGRATION);
+        // keep the endpoints in the config, so that the per-node probe settings apply
+        finder.start(Collections.singletonList(url));
     }
 }
@@ -1,6 +1,5 @@
 package com.vaadin.failover.client;
 
-import com.google.gwt.core.client.GWT;
 import com.google.gwt.event.dom.client.ClickEvent;
 import com.google.gwt.event.dom.client.ClickHandler;
 import com.google.gwt.user.client.ui.Button;
@@ -37,9 +36,10 @@ public class FailoverReconnectDialog extends DefaultReconnectDialog {
     public void setReconnecting(boolean reconnecting) {
         super.setReconnecting(reconnecting);
         if (reconnecting) {
+            FailoverProcess.get().onConnectionLost();
             if (reconnect == null) {
                 // create the UI buttons
-                reconnect = new Button(getFailoverConnector().getState().trySpareServersButtonCaption, new ClickHandler() {
+                reconnect = new Button(getTrySpareServersButtonCaption(), new ClickHandler() {
                     @Override
                     public void onClick(ClickEvent event) {
                         startReconnecting();
@@ -50,7 +50,7 @@ public class FailoverReconnectDialog extends DefaultReconnectDialog {
                 cancelReconnect = new Button("Cancel", new ClickHandler() {
                     @Override
                     public void onClick(ClickEvent event) {
-                        getFailoverConnector().cancelFailOver();
+                        FailoverProcess.get().cancel();
                         setReconnectButtonVisible(true);
                     }
                 });
@@ -59,7 +59,7 @@ public class FailoverReconnectDialog extends DefaultReconnectDialog {
                 setReconnectButtonVisible(true);
 
                 // register itself as a listener for FailoverReconnectConnector status
-                getFailoverConnector().statusListeners.add(new FailoverReconnectConnector.StatusListener() {
+                FailoverProcess.get().statusListeners.add(new FailoverReconnectConnector.StatusListener() {
                     @Override
                     public void onStatus(String message) {
                         label.setText(message);
@@ -74,13 +74,15 @@ public class FailoverReconnectDialog extends DefaultReconnectDialog {
             }
         } else {
             // cancel the reconnection process if ongoing! It seems we are back online.
-            getFailoverConnector().cancelFailOver();
+            FailoverProcess.get().onConnectionRestored();
         }
     }
 
     private void setReconnectButtonVisible(boolean reconnectVisible) {
         reconnect.setVisible(reconnectVisible);
-        cancelReconnect.setVisible(!reconnectVisible && getFailoverConnector().getState().allowCancel);
+        final FailoverReconnectConnector connector = findFailoverConnector();
+        final boolean allowCancel = connector == null || connector.getState().allowCancel;
+        cancelReconnect.setVisible(!reconnectVisible && allowCancel);
         if (reconnectVisible && dialogText != null) {
             super.setText(dialogText);
         }
@@ -88,27 +90,53 @@ public class FailoverReconnectDialog extends DefaultReconnectDialog {
 
     @Override
     public void setText(String text) {
-        if (!getFailoverConnector().isReconnectionOngoing()) {
+        if (!FailoverProcess.get().isOngoing()) {
             super.setText(text);
         } else {
             // the reconnection logic is running and the label is showing reconnection status.
             // suppress any attempts to overwrite the reconnection status but log them.
-            GWT.log("FailoverReconnectDialog: Suppressed message: " + text);
+            if (FailoverLog.isDebugEnabled()) {
+                FailoverLog.debug("FailoverReconnectDialog: Suppressed message: " + text);
+            }
             dialogText = text;
         }
     }
 
     private void startReconnecting() {
         setReconnectButtonVisible(false);
-        getFailoverConnector().startFailOver();
+        FailoverProcess.get().start(getFailoverConfig());
+    }
+
+    private String getTrySpareServersButtonCaption() {
+        final FailoverReconnectConnector connector = findFailoverConnector();
+        return connector == null ? new FailoverReconnectState().trySpareServersButtonCaption : connector.getState().trySpareServersButtonCaption;
+    }
+
+    /**
+     * Obtains the fail-over configuration from the extension; if the extension is not (yet) present, falls back to the configuration
+     * embedded in the bootstrap page. That allows us to fail over even when the server died before the first UIDL response arrived.
+     */
+    private FailoverConfig getFailoverConfig() {
+        final FailoverReconnectConnector connector = findFailoverConnector();
+        if (connector != null) {
+            return connector.getFailoverConfig();
+        }
+        final FailoverConfig config = FailoverConfig.fromBootstrapPage();
+        if (config == null) {
+            throw new IllegalStateException("The Failover Add-On Extension is not present in the UI. Have you attached the FailoverReconnectExtension to your UI?");
+        }
+        return config;
     }
 
-    private FailoverReconnectConnector getFailoverConnector() {
+    private FailoverReconnectConnector findFailoverConnector() {
+        if (ac.getUIConnector() == null) {
+            return null;
+        }
         for (ServerConnector connector : ac.getUIConnector().getChildren()) {
             if (connector instanceof FailoverReconnectConnector) {
                 return ((FailoverReconnectConnector) connector);
             }
         }
-        throw new IllegalStateException("The Failover Add-On Extension is not present in the UI. Have you attached the FailoverReconnectExtension to your UI?");
+        return null;
     }
 }
@@ -17,21 +17,21 @@ import java.util.List;
  */
 public class FailoverReconnectState extends SharedState {
     /**
-     * The list of URLs to reconnect to, not null, may be empty.
+     * The nodes to reconnect to, not null, may be empty.
      */
-    public List<String> urls = new ArrayList<>();
+    public List<FailoverEndpoint> endpoints = new ArrayList<>();
     /**
      * Only for debugging/development purposes - when reconnecting, overwrites this Label's text with the status message.
      */
     public Connector statusLabel;
     /**
-     * If true (the default), then during the reconnecting phase, {@link #urls} are pulled in random order. If false, {@link #urls} are pulled
-     * in exactly the same order as they appear in the {@link #urls} list.
+     * If true (the default), then during the reconnecting phase, {@link #endpoints} are pulled in random order. If false, {@link #endpoints} are pulled
+     * in exactly the same order as they appear in the {@link #endpoints} list.
      */
     public boolean randomRobin = true;
     /**
-     * If true (the default), the reconnection process is endless - it will forever try to connect to {@link #urls}. If false,
-     * each URL from {@link #urls} is tried only once. After that, the reconnection dialog gives up (and calls
+     * If true (the default), the reconnection process is endless - it will forever try to connect to {@link #endpoints}. If false,
+     * each URL from {@link #endpoints} is tried only once. After that, the reconnection dialog gives up (and calls
      * {@link FailoverReconnectConnector.StatusListener#onGaveUp()}
      */
     public boolean infinite = true;
@@ -56,7 +56,85 @@ public class FailoverReconnectState extends SharedState {
 
     /**
      * If not null, the Image Ping strategy will be used to ping for a live server. This string is then simply added to every URL
-     * in {@link #urls}. You can use e.g. "/favicon.ico" or "/VAADIN/themes/mytheme/img/app-icon.png".
+     * in {@link #endpoints}. You can use e.g. "/favicon.ico" or "/VAADIN/themes/mytheme/img/app-icon.png".
      */
     public String pingImagePath = null;
+
+    /**
+     * If not null, the client records the timings of every fail-over incident and sends them (via <code>navigator.sendBeacon()</code>)
+     * to this path of the server the browser is redirected to. The path is simply appended to the URL, the same way as
+     * {@link #pingImagePath} is. The server should run the <code>FailoverTelemetryServlet</code> there. Null by default.
+     */
+    public String telemetryPath = null;
+
+    /**
+     * Client-side log messages below this level are dropped at no cost; the remaining ones are kept in a ring buffer
+     * (see {@link FailoverLog}). Defaults to {@link LogLevel#INFO}.
+     */
+    public LogLevel logLevel = LogLevel.INFO;
+
+    /**
+     * If true (the default), the client-side log messages which pass {@link #logLevel} are also written to the browser console.
+     */
+    public boolean logToConsole = true;
+
+    /**
+     * The encrypted handoff token carrying the user identity and navigation state. When not null, it is appended to the URL
+     * when failing over, so that the spare server can restore the session without a fresh login. Maintained by the
+     * server-side <code>FailoverHandoff</code>. Null by default.
+     */
+    public String handoffToken = null;
+
+    /**
+     * If true, on the first visit the browser probes all {@link #endpoints} in parallel and moves to another node if it is clearly better
+     * in terms of round-trip time and reported load. The choice is remembered in the browser's local storage. False by default.
+     */
+    public boolean initialNodeSelection = false;
+
+    /**
+     * The time budget for probing the nodes when {@link #initialNodeSelection} is enabled, in milliseconds. Defaults to 1 second.
+     */
+    public int initialNodeSelectionBudgetMillis = 1000;
+
+    /**
+     * If not null, {@link #initialNodeSelection} probes this path of every URL instead of the ping path, and reads the node load
+     * from the response. The path should be served by the <code>FailoverLoadServlet</code>. Null by default.
+     */
+    public String loadPath = null;
+
+    /**
+     * The URLs which many browsers have recently found dead, as reported to the server. The fail-over process tries these URLs last.
+     * Maintained by the server-side <code>FailoverNodeHealth</code>.
+     */
+    public List<String> suspectUrls = new ArrayList<>();
+
+    /**
+     * If not 0, the fail-over probes are sent to this port of every URL (keeping the scheme and the host) instead of the URL itself.
+     * The server should run the <code>FailoverHealthResponder</code> there. 0 by default.
+     */
+    public int healthPort = 0;
+
+    /**
+     * If true, the browser keeps a pre-initialized UI on one spare in a hidden iframe while the primary is healthy, and the fail-over
+     * reuses that UI. See {@link HotStandby}. False by default.
+     */
+    public boolean hotStandby = false;
+
+    /**
+     * How often the standby UI is asked to send a heartbeat when {@link #hotStandby} is enabled, in milliseconds. Defaults to 2 minutes.
+     */
+    public int hotStandbyKeepaliveMillis = 120000;
+
+    /**
+     * If true, the fail-over does not reload the page; it starts a fresh UI on the spare and renders it into the current page instead,
+     * see {@link InPlaceReattach}. False by default.
+     */
+    public boolean inPlaceReattach = false;
+
+    /**
+     * If true, the probes and the back-off delays run in a Web Worker, so that the fail-over of a background tab is not slowed down by
+     * the timer throttling. Falls back to probing in the page when the browser does not support it. See {@link FailoverWorker}.
+     * False by default.
+     */
+    public boolean workerProbing = false;
 }
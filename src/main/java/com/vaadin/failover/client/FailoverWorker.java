@@ -0,0 +1,191 @@
+package com.vaadin.failover.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the probes and the back-off delays in a dedicated Web Worker, see {@link FailoverReconnectState#workerProbing}. Browsers throttle
+ * the timers of background tabs heavily (down to once per minute); the worker timers and the messages from the worker are not throttled
+ * like that, so the fail-over of a background tab takes as long as the fail-over of a foreground tab.
+ * <p>
+ * The worker probes via <code>fetch()</code>: in the CORS mode (which is able to detect <code>503 Service Unavailable</code>) when the
+ * Ajax ping or the health responder is used; in the no-cors mode for the Image ping, where any response counts as alive.
+ * @author mavi
+ */
+final class FailoverWorker {
+    /**
+     * The worker source. Messages to the worker: <code>{type: 'ping', id, url, timeoutMillis, cors}</code>,
+     * <code>{type: 'sleep', id, millis}</code>, <code>{type: 'cancel', id}</code>. Messages from the worker: <code>{id, ok}</code>.
+     */
+    private static final String SCRIPT = "var pending = {};\n"
+            + "function done(id, ok) {\n"
+            + "  var p = pending[id];\n"
+            + "  if (p) {\n"
+            + "    delete pending[id];\n"
+            + "    clearTimeout(p.timer);\n"
+            + "    postMessage({id: id, ok: ok});\n"
+            + "  }\n"
+            + "}\n"
+            + "onmessage = function (e) {\n"
+            + "  var m = e.data;\n"
+            + "  if (m.type === 'cancel') {\n"
+            + "    var p = pending[m.id];\n"
+            + "    if (p) {\n"
+            + "      delete pending[m.id];\n"
+            + "      clearTimeout(p.timer);\n"
+            + "      if (p.controller) { p.controller.abort(); }\n"
+            + "    }\n"
+            + "  } else if (m.type === 'sleep') {\n"
+            + "    pending[m.id] = {timer: setTimeout(function () { done(m.id, true); }, m.millis)};\n"
+            + "  } else if (m.type === 'ping') {\n"
+            + "    var controller = new AbortController();\n"
+            + "    pending[m.id] = {controller: controller, timer: setTimeout(function () { controller.abort(); done(m.id, false); }, m.timeoutMillis)};\n"
+            + "    fetch(m.url, {mode: m.cors ? 'cors' : 'no-cors', cache: 'no-store', credentials: 'omit', signal: controller.signal}).then(function (r) {\n"
+            // an opaque (no-cors) response hides the status; 0 means a network error, 503 means that the server refuses the fail-over traffic.
+            + "      done(m.id, r.type === 'opaque' || (r.status !== 0 && r.status !== 503));\n"
+            + "    }, function () {\n"
+            + "      done(m.id, false);\n"
+            + "    });\n"
+            + "  }\n"
+            + "};\n";
+
+    private static FailoverWorker instance;
+    /**
+     * True if the worker can not be used in this browser, or it failed.
+     */
+    private static boolean unavailable = false;
+
+    /**
+     * Returns the page-wide worker, starting it if needed.
+     * @return the worker, or null if the browser does not support Web Workers, <code>fetch()</code> or <code>AbortController</code>,
+     * or if the worker is blocked (e.g. by the Content Security Policy which needs to allow <code>worker-src blob:</code>).
+     */
+    static FailoverWorker get() {
+        if (instance == null && !unavailable) {
+            final FailoverWorker worker = new FailoverWorker();
+            worker.worker = createWorker(SCRIPT, worker);
+            if (worker.worker == null) {
+                FailoverLog.warn("Web Worker is not available, probing in the page");
+                unavailable = true;
+            } else {
+                instance = worker;
+            }
+        }
+        return instance;
+    }
+
+    private JavaScriptObject worker;
+    private int nextId = 0;
+    private final Map<Integer, PingStrategy.Callback> pings = new HashMap<>();
+    private final Map<Integer, Runnable> sleeps = new HashMap<>();
+
+    private FailoverWorker() {
+    }
+
+    /**
+     * Probes given URL in the worker.
+     * @param url the URL to fetch, not null.
+     * @param timeoutMillis the timeout.
+     * @param cors if true, the probe is a CORS request and fails on <code>503</code>; if false, any response counts as alive.
+     * @param callback notified of the outcome, not null.
+     * @return the ID which can be passed to {@link #cancel(int)}.
+     */
+    int ping(String url, int timeoutMillis, boolean cors, PingStrategy.Callback callback) {
+        final int id = nextId++;
+        pings.put(id, callback);
+        postPing(worker, id, url, timeoutMillis, cors);
+        return id;
+    }
+
+    /**
+     * Runs given action after a delay measured by the worker.
+     * @param delayMillis the delay.
+     * @param action the action, not null.
+     * @return the ID which can be passed to {@link #cancel(int)}.
+     */
+    int schedule(int delayMillis, Runnable action) {
+        final int id = nextId++;
+        sleeps.put(id, action);
+        postSleep(worker, id, delayMillis);
+        return id;
+    }
+
+    /**
+     * Cancels a probe or a scheduled action. No callbacks are called afterwards. Does nothing if the probe already finished.
+     * @param id the ID.
+     */
+    void cancel(int id) {
+        if (pings.remove(id) != null || sleeps.remove(id) != null) {
+            postCancel(worker, id);
+        }
+    }
+
+    private void onMessage(int id, boolean ok) {
+        final PingStrategy.Callback callback = pings.remove(id);
+        if (callback != null) {
+            if (ok) {
+                callback.onSuccess();
+            } else {
+                callback.onFailed();
+            }
+        }
+        final Runnable action = sleeps.remove(id);
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * The worker failed to start; complete everything in the page and use the in-page probing from now on.
+     */
+    private void onError() {
+        FailoverLog.warn("Web Worker failed, probing in the page");
+        unavailable = true;
+        instance = null;
+        final List<PingStrategy.Callback> failedPings = new ArrayList<>(pings.values());
+        final List<Runnable> actions = new ArrayList<>(sleeps.values());
+        pings.clear();
+        sleeps.clear();
+        for (PingStrategy.Callback callback : failedPings) {
+            callback.onFailed();
+        }
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    private static native JavaScriptObject createWorker(String script, FailoverWorker self) /*-{
+        if (!$wnd.Worker || !$wnd.Blob || !$wnd.URL || !$wnd.URL.createObjectURL || !$wnd.fetch || !$wnd.AbortController) {
+            return null;
+        }
+        try {
+            var url = $wnd.URL.createObjectURL(new $wnd.Blob([script], {type: 'application/javascript'}));
+            var worker = new $wnd.Worker(url);
+            worker.onmessage = $entry(function (e) {
+                self.@com.vaadin.failover.client.FailoverWorker::onMessage(IZ)(e.data.id, e.data.ok);
+            });
+            worker.onerror = $entry(function () {
+                self.@com.vaadin.failover.client.FailoverWorker::onError()();
+            });
+            return worker;
+        } catch (e) {
+            return null;
+        }
+    }-*/;
+
+    private static native void postPing(JavaScriptObject worker, int id, String url, int timeoutMillis, boolean cors) /*-{
+        worker.postMessage({type: 'ping', id: id, url: url, timeoutMillis: timeoutMillis, cors: cors});
+    }-*/;
+
+    private static native void postSleep(JavaScriptObject worker, int id, int millis) /*-{
+        worker.postMessage({type: 'sleep', id: id, millis: millis});
+    }-*/;
+
+    private static native void postCancel(JavaScriptObject worker, int id) /*-{
+        worker.postMessage({type: 'cancel', id: id});
+    }-*/;
+}
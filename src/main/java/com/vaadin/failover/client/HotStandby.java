@@ -0,0 +1,196 @@
+package com.vaadin.failover.client;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.IFrameElement;
+import com.google.gwt.dom.client.Style;
+import com.google.gwt.http.client.URL;
+import com.google.gwt.user.client.Random;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.Window;
+import com.vaadin.client.ApplicationConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a pre-initialized UI on one spare while the primary is healthy, see {@link FailoverReconnectState#hotStandby}. The standby UI
+ * lives in a hidden iframe with a unique window name. The iframe is loaded only once: to keep the spare session alive, the page
+ * periodically posts a {@link #KEEPALIVE_MESSAGE} to the iframe, which answers it with a Vaadin heartbeat request to the spare. The
+ * standby UI doesn't need a fresh handoff token; the fail-over redirect carries the page's current one. When failing over to the spare,
+ * the page takes over the iframe's window name, so that the spare (with <code>@PreserveOnRefresh</code> on the UI class) reuses the
+ * standby UI instead of initializing a new one.
+ * @author mavi
+ */
+final class HotStandby {
+    /**
+     * Marks the requests of the standby iframe; must match the server-side <code>FailoverStandbyFilter.PARAMETER</code>.
+     */
+    static final String STANDBY_PARAMETER = "failover-standby";
+    /**
+     * Posted by the page to the standby iframe every {@link FailoverConfig#hotStandbyKeepaliveMillis}.
+     */
+    static final String KEEPALIVE_MESSAGE = "vaadinFailoverStandbyKeepalive";
+    /**
+     * In the standby iframe: the connection whose heartbeat answers the {@link #KEEPALIVE_MESSAGE}, null if not listening.
+     */
+    private static ApplicationConnection keepaliveConnection = null;
+
+    private static final HotStandby INSTANCE = new HotStandby();
+
+    /**
+     * Returns the page-wide instance.
+     * @return the instance, not null.
+     */
+    static HotStandby get() {
+        return INSTANCE;
+    }
+
+    private FailoverConfig config;
+    private IFrameElement frame;
+    /**
+     * The spare holding the standby UI, null if there is no standby.
+     */
+    private String url;
+    private String windowName;
+    private Timer keepalive;
+
+    private HotStandby() {
+    }
+
+    /**
+     * @return true if this page is the standby UI itself, running in the hidden iframe of another page.
+     */
+    static boolean isStandbyFrame() {
+        return Window.Location.getParameter(STANDBY_PARAMETER) != null;
+    }
+
+    /**
+     * Starts, keeps or stops the standby according to the configuration.
+     * @param config the configuration, not null.
+     */
+    void configure(FailoverConfig config) {
+        this.config = config;
+        if (!config.hotStandby || isStandbyFrame()) {
+            stop();
+            return;
+        }
+        if (url != null && config.urls.contains(url) && !config.suspectUrls.contains(url)) {
+            // keep the current standby.
+            return;
+        }
+        stop();
+        final String spare = chooseSpare(config);
+        if (spare == null) {
+            return;
+        }
+        url = spare;
+        windowName = "vaadinFailoverStandby-" + Random.nextInt(Integer.MAX_VALUE);
+        frame = Document.get().createIFrameElement();
+        frame.setName(windowName);
+        frame.setTabIndex(-1);
+        frame.getStyle().setDisplay(Style.Display.NONE);
+        frame.setSrc(getFrameUrl());
+        Document.get().getBody().appendChild(frame);
+        keepalive = new Timer() {
+            @Override
+            public void run() {
+                postKeepalive(frame, KEEPALIVE_MESSAGE);
+            }
+        };
+        keepalive.scheduleRepeating(config.hotStandbyKeepaliveMillis);
+        if (FailoverLog.isEnabled(LogLevel.INFO)) {
+            FailoverLog.info("Keeping a standby UI at " + url);
+        }
+    }
+
+    private static String chooseSpare(FailoverConfig config) {
+        final String currentUrl = config.getCurrentUrl();
+        final List<String> candidates = new ArrayList<>();
+        for (String url : config.urls) {
+            if (!url.equals(currentUrl) && !config.suspectUrls.contains(url)) {
+                candidates.add(url);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        return config.randomRobin ? candidates.get(Random.nextInt(candidates.size())) : candidates.get(0);
+    }
+
+    private String getFrameUrl() {
+        final StringBuilder sb = new StringBuilder(url);
+        sb.append(url.contains("?") ? '&' : '?').append(STANDBY_PARAMETER);
+        if (config.handoffToken != null) {
+            sb.append('&').append(LiveUrlFinder.HANDOFF_PARAMETER).append('=').append(URL.encodeQueryString(config.handoffToken));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the spare holding the standby UI, null if there is none.
+     */
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * Called right before the page is redirected to {@link #getUrl()}: takes over the window name of the standby UI, so that
+     * the spare reuses it.
+     */
+    void adopt() {
+        if (windowName != null) {
+            setWindowName(windowName);
+        }
+    }
+
+    /**
+     * Removes the standby iframe. Does nothing if there is no standby.
+     */
+    void stop() {
+        if (keepalive != null) {
+            keepalive.cancel();
+            keepalive = null;
+        }
+        if (frame != null) {
+            frame.removeFromParent();
+            frame = null;
+        }
+        url = null;
+        windowName = null;
+    }
+
+    private static native void postKeepalive(IFrameElement frame, String message) /*-{
+        if (frame.contentWindow) {
+            // the message carries no data, so it doesn't matter which origin the iframe is at now.
+            frame.contentWindow.postMessage(message, '*');
+        }
+    }-*/;
+
+    /**
+     * Called in the standby iframe: answers the {@link #KEEPALIVE_MESSAGE}s of the parent page with a heartbeat of given connection,
+     * which keeps the standby session and the standby UI alive.
+     * @param connection the connection of the standby UI, not null.
+     */
+    static void listenForKeepalive(ApplicationConnection connection) {
+        if (keepaliveConnection == null) {
+            addKeepaliveListener(KEEPALIVE_MESSAGE);
+        }
+        keepaliveConnection = connection;
+    }
+
+    private static void onKeepalive() {
+        keepaliveConnection.getHeartbeat().send();
+    }
+
+    private static native void addKeepaliveListener(String message) /*-{
+        $wnd.addEventListener('message', $entry(function (event) {
+            if (event.source === $wnd.parent && event.data === message) {
+                @com.vaadin.failover.client.HotStandby::onKeepalive()();
+            }
+        }));
+    }-*/;
+
+    private static native void setWindowName(String name) /*-{
+        $wnd.name = name;
+    }-*/;
+}
@@ -0,0 +1,221 @@
+package com.vaadin.failover.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.dom.client.DivElement;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.user.client.Random;
+import com.google.gwt.user.client.Window;
+import com.vaadin.client.ApplicationConfiguration;
+import com.vaadin.client.ApplicationConnection;
+import com.vaadin.client.ServerConnector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the running client to a spare without reloading the page, see {@link FailoverReconnectState#inPlaceReattach}. The widgetset
+ * is already loaded, so the client only needs a fresh UI: the old Vaadin application is stopped and removed from the document,
+ * and a new one is started in its place via <code>vaadin.initApplication()</code>, with the same configuration except that
+ * all URLs point to the spare. Only works when all nodes run the same version of the application.
+ * <p>
+ * The spare is contacted via cross-origin XHRs; the requests to the spare are sent with credentials (so that the session cookie
+ * is kept), and the spare must allow that via CORS, see the server-side <code>FailoverCorsFilter</code>. To that end,
+ * <code>XMLHttpRequest.prototype.open</code> is patched; the patch only touches the requests to the spare's origin, and the
+ * original <code>open</code> is put back by {@link #release()}.
+ * <p>
+ * The theme and the other static resources are loaded from the spare as well (the <code>vaadinDir</code> is pointed to it), so the
+ * spare must serve the same theme; the browser fetches the theme again unless it has cached it for the spare's origin.
+ * @author mavi
+ */
+final class InPlaceReattach {
+    /**
+     * The keys of the Vaadin bootstrap configuration which are carried over to the new application. The UIDL and the UI ID
+     * are intentionally missing: the new application fetches them from the spare.
+     */
+    private static final String[] CONFIG_KEYS = {"theme", "versionInfo", "widgetset", "widgetsetUrl", "widgetsetReady", "comErrMsg",
+            "authErrMsg", "sessExpMsg", "debug", "standalone", "heartbeatInterval", "sendUrlsAsParameters", "extraParams"};
+    /**
+     * The URL-valued keys of the Vaadin bootstrap configuration; these are carried over, pointed to the spare.
+     */
+    private static final String[] URL_CONFIG_KEYS = {"serviceUrl", "contextRootUrl", "vaadinDir", "frontendUrl"};
+
+    /**
+     * The spare this page has been re-attached to, null if none.
+     */
+    private static String attachedUrl = null;
+    /**
+     * The <code>XMLHttpRequest.prototype.open</code> replaced by {@link #allowCredentials(String)}, null if not patched.
+     */
+    private static JavaScriptObject originalOpen = null;
+
+    private InPlaceReattach() {
+    }
+
+    /**
+     * @return the spare this page has been re-attached to, or null if the page still talks to the server it was loaded from.
+     */
+    static String getAttachedUrl() {
+        return attachedUrl;
+    }
+
+    /**
+     * Re-attaches the client to given spare.
+     * @param url the spare URL, not null.
+     * @param parameters the URL parameters to pass to the spare (such as the handoff token), not null.
+     * @return true if the new application has been started, false if the re-attach is not possible here and the caller should
+     * redirect the browser instead.
+     */
+    static boolean reattach(String url, String parameters) {
+        final List<ApplicationConnection> running = new ArrayList<>(ApplicationConfiguration.getRunningApplications());
+        if (running.size() != 1 || !isUrlApiSupported()) {
+            // we can't tell which application to move, or the browser is too old. Fall back to the redirect.
+            return false;
+        }
+        final ApplicationConnection connection = running.get(0);
+        final String appId = connection.getConfiguration().getRootPanelId();
+        final JavaScriptObject oldApp = getApp(appId);
+        final Element oldRoot = Document.get().getElementById(appId);
+        if (oldApp == null || oldRoot == null) {
+            return false;
+        }
+        final String pageUrl = Window.Location.getHref().replaceFirst("[?#].*", "");
+        final String newPageUrl = rebase(pageUrl, pageUrl, url);
+        final String browserDetailsUrl = newPageUrl + "?" + parameters;
+        final JavaScriptObject config = JavaScriptObject.createObject();
+        for (String key : CONFIG_KEYS) {
+            copyConfig(oldApp, config, key);
+        }
+        for (String key : URL_CONFIG_KEYS) {
+            final String value = getConfigString(oldApp, key);
+            if (value != null) {
+                setConfigString(config, key, rebase(value, pageUrl, url));
+            }
+        }
+        if (getConfigString(config, "serviceUrl") == null) {
+            // the service URL defaults to the page URL; that's the primary, so set it explicitly.
+            setConfigString(config, "serviceUrl", newPageUrl);
+        }
+        setConfigString(config, "browserDetailsUrl", browserDetailsUrl);
+
+        // stop the old application and remove it from the document, including its overlays (e.g. the reconnect dialog).
+        // Its connectors are never unregistered, so unhook them from the fail-over machinery explicitly.
+        for (ServerConnector child : connection.getUIConnector().getChildren()) {
+            if (child instanceof FailoverReconnectConnector) {
+                ((FailoverReconnectConnector) child).release();
+            }
+        }
+        connection.setApplicationRunning(false);
+        connection.getUIConnector().getWidget().removeFromParent();
+        final String newAppId = appId.replaceFirst("-\\d+$", "") + "-" + Random.nextInt(Integer.MAX_VALUE);
+        final DivElement newRoot = Document.get().createDivElement();
+        newRoot.setId(newAppId);
+        newRoot.setClassName(oldRoot.getClassName());
+        final DivElement loading = Document.get().createDivElement();
+        loading.setClassName("v-app-loading");
+        newRoot.appendChild(loading);
+        oldRoot.getParentElement().insertBefore(newRoot, oldRoot);
+        oldRoot.removeFromParent();
+        final Element overlays = Document.get().getElementById(appId + "-overlays");
+        if (overlays != null) {
+            overlays.removeFromParent();
+        }
+
+        release();
+        originalOpen = allowCredentials(getOrigin(url));
+        attachedUrl = url;
+        if (FailoverLog.isEnabled(LogLevel.INFO)) {
+            FailoverLog.info("Re-attaching to " + url + " as " + newAppId);
+        }
+        // the standby UI (if any) is taken over by this page now; the new application starts its own standby once configured
+        HotStandby.get().stop();
+        initApplication(newAppId, config);
+        return true;
+    }
+
+    private static native boolean isUrlApiSupported() /*-{
+        try {
+            return new $wnd.URL('a', 'http://b/').href === 'http://b/a';
+        } catch (e) {
+            return false;
+        }
+    }-*/;
+
+    private static native JavaScriptObject getApp(String appId) /*-{
+        return $wnd.vaadin && $wnd.vaadin.getApp ? ($wnd.vaadin.getApp(appId) || null) : null;
+    }-*/;
+
+    private static native String getOrigin(String url) /*-{
+        return new $wnd.URL(url, $wnd.location.href).origin;
+    }-*/;
+
+    /**
+     * Resolves given URL against the page URL; if it then points to the page's origin, points it to the spare's origin instead.
+     */
+    private static native String rebase(String value, String pageUrl, String spareUrl) /*-{
+        var absolute = new $wnd.URL(value, pageUrl);
+        var page = new $wnd.URL(pageUrl);
+        if (absolute.origin !== page.origin) {
+            return absolute.href;
+        }
+        var spare = new $wnd.URL(spareUrl, pageUrl);
+        absolute.protocol = spare.protocol;
+        absolute.host = spare.host;
+        return absolute.href;
+    }-*/;
+
+    private static native void copyConfig(JavaScriptObject app, JavaScriptObject config, String key) /*-{
+        var value = app.getConfig(key);
+        if (value !== undefined) {
+            config[key] = value;
+        }
+    }-*/;
+
+    private static native String getConfigString(JavaScriptObject app, String key) /*-{
+        var value = app.getConfig ? app.getConfig(key) : app[key];
+        return typeof value === 'string' && value ? value : null;
+    }-*/;
+
+    private static native void setConfigString(JavaScriptObject config, String key, String value) /*-{
+        config[key] = value;
+    }-*/;
+
+    /**
+     * Undoes the XHR patch of {@link #reattach(String, String)}: puts the original <code>XMLHttpRequest.prototype.open</code> back.
+     * Called once the application talking to the spare stops, see {@link FailoverReconnectConnector#release()}. Does nothing if
+     * the patch is not installed.
+     */
+    static void release() {
+        if (originalOpen != null) {
+            restoreOpen(originalOpen);
+            originalOpen = null;
+        }
+    }
+
+    /**
+     * Makes the XHRs to given origin carry credentials, so that the session cookie of the spare is stored and sent. The other
+     * requests (including the relative URLs, which point to the page's own origin) are left alone.
+     * @return the original <code>open</code> function, to be restored by {@link #restoreOpen(JavaScriptObject)}.
+     */
+    private static native JavaScriptObject allowCredentials(String origin) /*-{
+        var proto = $wnd.XMLHttpRequest.prototype;
+        var open = proto.open;
+        proto.open = function (method, url) {
+            var result = open.apply(this, arguments);
+            var href = String(url);
+            if (href === origin || href.indexOf(origin + '/') === 0) {
+                this.withCredentials = true;
+            }
+            return result;
+        };
+        return open;
+    }-*/;
+
+    private static native void restoreOpen(JavaScriptObject open) /*-{
+        $wnd.XMLHttpRequest.prototype.open = open;
+    }-*/;
+
+    private static native void initApplication(String appId, JavaScriptObject config) /*-{
+        $wnd.vaadin.initApplication(appId, config);
+    }-*/;
+}
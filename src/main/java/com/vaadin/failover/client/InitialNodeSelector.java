@@ -0,0 +1,276 @@
+package com.vaadin.failover.client;
+
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.Response;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.Window;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the best node on the first visit. Probes all nodes (including the current one) in parallel, within a short budget, and moves
+ * the browser to another node if it is clearly better in terms of round-trip time and reported load. The choice is remembered in the
+ * browser's local storage, so that later visits skip the probing.
+ * <p>
+ * A node is clearly better if its score is at most {@link #CLEARLY_BETTER_RATIO} of the current node's score. The score is the round-trip
+ * time, multiplied by <code>1 + load / maxLoad</code> when the nodes report their load via {@link FailoverConfig#loadPath}.
+ * <p>
+ * When the configuration is embedded in the bootstrap page, the <code>FailoverBootstrapListener</code> runs the same selection in the
+ * page before the application is initialized, and this class does nothing. Otherwise the selection runs once the configuration is
+ * known, that is after the first UIDL response. By then the current node has already created the session and the UI; when the browser
+ * moves away, those are abandoned and expire with the session timeout. The current node is the configured URL matching the page
+ * (see {@link FailoverConfig#getCurrentUrl()}); the selection is skipped when the page has been served by a node which is not listed.
+ * @author mavi
+ */
+final class InitialNodeSelector {
+    /**
+     * The local storage key holding the choice made on the previous visit.
+     */
+    private static final String STORAGE_KEY = "vaadinFailover.initialNode";
+    /**
+     * Appended to the URL when moving the browser to the selected node, so that the node does not start the selection again.
+     */
+    static final String SELECTED_PARAMETER = "failover-selected";
+    /**
+     * The choice is re-evaluated after this period.
+     */
+    private static final double CHOICE_TTL_MILLIS = 24 * 60 * 60 * 1000d;
+    private static final double CLEARLY_BETTER_RATIO = 0.6;
+
+    private static boolean alreadyRun = false;
+
+    /**
+     * The outcome of probing one node.
+     */
+    private static final class Probe {
+        final String url;
+        final long startedAt = System.currentTimeMillis();
+        /**
+         * The round-trip time, -1 if the node has not responded (yet).
+         */
+        long rtt = -1;
+        /**
+         * The reported load, -1 if not known.
+         */
+        int load = -1;
+        boolean done = false;
+        Request request;
+        PingStrategy ping;
+
+        Probe(String url) {
+            this.url = url;
+        }
+    }
+
+    private final FailoverConfig config;
+    private final String currentUrl;
+    private final List<Probe> probes = new ArrayList<>();
+    private Timer budgetTimer;
+    private boolean decided = false;
+
+    private InitialNodeSelector(FailoverConfig config) {
+        this.config = config;
+        currentUrl = config.getCurrentUrl();
+    }
+
+    /**
+     * Runs the selection, at most once per page.
+     * @param config the configuration, not null.
+     */
+    static void run(FailoverConfig config) {
+        if (alreadyRun || !config.initialNodeSelection || config.urls.isEmpty() || isSelectedByBootstrapPage(FailoverConfig.BOOTSTRAP_CONFIG_VARIABLE)) {
+            return;
+        }
+        alreadyRun = true;
+        if (config.getCurrentUrl() == null) {
+            // we can't compare the nodes with this one, and moving away could take the user to a different application.
+            FailoverLog.debug("This page has been served by a node which is not listed, skipping the initial node selection");
+            return;
+        }
+        new InitialNodeSelector(config).start();
+    }
+
+    private void start() {
+        if (Window.Location.getParameter(SELECTED_PARAMETER) != null) {
+            // we've been moved here by the selection on another node. Remember that, so that we do not probe on next visit.
+            remember(currentUrl);
+            return;
+        }
+        final String previousChoice = getStoredChoice(STORAGE_KEY, CHOICE_TTL_MILLIS);
+        if (previousChoice != null && config.urls.contains(previousChoice)) {
+            if (!previousChoice.equals(currentUrl)) {
+                moveTo(previousChoice);
+            }
+            return;
+        }
+        probes.add(new Probe(currentUrl));
+        for (String url : config.urls) {
+            if (!url.equals(currentUrl)) {
+                probes.add(new Probe(url));
+            }
+        }
+        for (Probe probe : probes) {
+            probe(probe);
+        }
+        budgetTimer = new Timer() {
+            @Override
+            public void run() {
+                decide();
+            }
+        };
+        budgetTimer.schedule(config.initialNodeSelectionBudgetMillis);
+    }
+
+    private void probe(final Probe probe) {
+        if (config.loadPath != null) {
+            // the load servlet has CORS enabled; it also tells us the load.
+            final RequestBuilder builder = new RequestBuilder(RequestBuilder.GET, probe.url + config.loadPath);
+            builder.setTimeoutMillis(config.initialNodeSelectionBudgetMillis);
+            builder.setCallback(new RequestCallback() {
+                @Override
+                public void onResponseReceived(Request request, Response response) {
+                    if (response.getStatusCode() == Response.SC_OK) {
+                        try {
+                            probe.load = Integer.parseInt(response.getText().trim());
+                        } catch (NumberFormatException e) {
+                            FailoverLog.debug("Invalid load reported by " + probe.url);
+                        }
+                        onProbeDone(probe, true);
+                    } else {
+                        onProbeDone(probe, false);
+                    }
+                }
+
+                @Override
+                public void onError(Request request, Throwable exception) {
+                    onProbeDone(probe, false);
+                }
+            });
+            try {
+                probe.request = builder.send();
+            } catch (Exception e) {
+                onProbeDone(probe, false);
+            }
+        } else {
+            probe.ping = config.createPingStrategy(probe.url);
+            probe.ping.ping(config.getProbeUrl(probe.url), config.initialNodeSelectionBudgetMillis, new PingStrategy.Callback() {
+                @Override
+                public void onSuccess() {
+                    onProbeDone(probe, true);
+                }
+
+                @Override
+                public void onFailed() {
+                    onProbeDone(probe, false);
+                }
+            });
+        }
+    }
+
+    private void onProbeDone(Probe probe, boolean alive) {
+        if (decided || probe.done) {
+            return;
+        }
+        probe.done = true;
+        if (alive) {
+            probe.rtt = System.currentTimeMillis() - probe.startedAt;
+        }
+        for (Probe p : probes) {
+            if (!p.done) {
+                return;
+            }
+        }
+        decide();
+    }
+
+    private void decide() {
+        if (decided) {
+            return;
+        }
+        decided = true;
+        budgetTimer.cancel();
+        int maxLoad = 0;
+        for (Probe probe : probes) {
+            if (probe.request != null && probe.request.isPending()) {
+                probe.request.cancel();
+            }
+            if (probe.ping != null) {
+                probe.ping.cancel();
+            }
+            maxLoad = Math.max(maxLoad, probe.load);
+        }
+        final Probe current = probes.get(0);
+        Probe best = null;
+        for (Probe probe : probes) {
+            if (probe.rtt >= 0 && (best == null || score(probe, maxLoad) < score(best, maxLoad))) {
+                best = probe;
+            }
+        }
+        if (best == null) {
+            // nobody responded within the budget; stay here and try again on the next visit.
+            return;
+        }
+        if (current.rtt < 0 || score(best, maxLoad) <= score(current, maxLoad) * CLEARLY_BETTER_RATIO) {
+            if (FailoverLog.isEnabled(LogLevel.INFO)) {
+                FailoverLog.info("Selected " + best.url + ": rtt=" + best.rtt + ", load=" + best.load);
+            }
+            remember(best.url);
+            if (best != current) {
+                moveTo(best.url);
+            }
+        } else {
+            remember(currentUrl);
+        }
+    }
+
+    private static double score(Probe probe, int maxLoad) {
+        // add 1 millisecond so that a zero RTT doesn't cancel out the load
+        final double rtt = probe.rtt + 1;
+        return maxLoad <= 0 || probe.load < 0 ? rtt : rtt * (1 + ((double) probe.load) / maxLoad);
+    }
+
+    private static void remember(String url) {
+        storeChoice(STORAGE_KEY, url);
+    }
+
+    private static void moveTo(String url) {
+        // the user hasn't started working yet, so it's safe to simply move. Use replace() so that the user can't navigate back.
+        Window.Location.replace(url + (url.contains("?") ? "&" : "?") + SELECTED_PARAMETER);
+    }
+
+    /**
+     * @return true if the bootstrap page has already run the selection, see <code>FailoverBootstrapListener</code>.
+     */
+    private static native boolean isSelectedByBootstrapPage(String variable) /*-{
+        var config = $wnd[variable];
+        return !!(config && config.initialNodeSelected);
+    }-*/;
+
+    private static native String getStoredChoice(String key, double ttlMillis) /*-{
+        try {
+            var stored = $wnd.localStorage.getItem(key);
+            if (!stored) {
+                return null;
+            }
+            var choice = JSON.parse(stored);
+            if (typeof choice.url !== 'string' || typeof choice.at !== 'number' || Date.now() - choice.at > ttlMillis) {
+                return null;
+            }
+            return choice.url;
+        } catch (e) {
+            // local storage disabled, or corrupted value
+            return null;
+        }
+    }-*/;
+
+    private static native void storeChoice(String key, String url) /*-{
+        try {
+            $wnd.localStorage.setItem(key, JSON.stringify({url: url, at: Date.now()}));
+        } catch (e) {
+            // local storage disabled or full; we'll just probe again next time.
+        }
+    }-*/;
+}
@@ -5,6 +5,7 @@ import com.google.gwt.http.client.Request;
 import com.google.gwt.http.client.RequestBuilder;
 import com.google.gwt.http.client.RequestCallback;
 import com.google.gwt.http.client.Response;
+import com.google.gwt.http.client.URL;
 import com.google.gwt.user.client.Window;
 
 import java.util.List;
@@ -16,15 +17,53 @@ import java.util.List;
  * @author mavi
  */
 final class LiveUrlFinder {
+    /**
+     * The URL parameter carrying the handoff token; must match the server-side <code>FailoverHandoff.PARAMETER</code>.
+     */
+    static final String HANDOFF_PARAMETER = "failover-handoff";
+    /**
+     * The URL parameter telling the server why the browser arrives; must match the server-side <code>FailoverSurge.ARRIVAL_PARAMETER</code>.
+     */
+    static final String ARRIVAL_PARAMETER = "failover-arrival";
+    /**
+     * The {@link #ARRIVAL_PARAMETER} value of a fail-over.
+     */
+    static final String ARRIVAL_FAILOVER = "failover";
+    /**
+     * The {@link #ARRIVAL_PARAMETER} value of a migration requested by the server, see {@link FailoverReconnectConnector#migrateTo(String)}.
+     */
+    static final String ARRIVAL_MIGRATION = "migration";
+    /**
+     * The URL parameter carrying the {@link FailoverIncident#getId() incident ID}; must match the server-side
+     * <code>FailoverTelemetry.INCIDENT_PARAMETER</code>.
+     */
+    static final String INCIDENT_PARAMETER = "failover-incident";
+
     /**
      * Notifies this listener of finder's current status.
      */
     private final FailoverReconnectConnector.StatusListener listener;
-    private final String pingImagePath;
     /**
-     * If the URL does not respond within this amount of millis, it is considered dead and the finder moves onto the next URL.
+     * Creates the probes and computes the URL to probe, see {@link FailoverConfig#createPingStrategy(String)}.
+     * If a URL does not respond within {@link FailoverConfig#getPingMillis(String)}, it is considered dead and the finder moves onto the next URL.
+     */
+    private final FailoverConfig config;
+    /**
+     * If not null, the {@link #incident} is sent to this path of the server we redirect to.
+     */
+    private final String telemetryPath;
+    /**
+     * Records the outcome of every probe, not null.
+     */
+    private final FailoverIncident incident;
+    /**
+     * If not null, appended to the URL we redirect to, see {@link FailoverReconnectState#handoffToken}.
+     */
+    private final String handoffToken;
+    /**
+     * The {@link #ARRIVAL_PARAMETER} value, not null.
      */
-    private final int pingMillis;
+    private final String arrivalReason;
     /**
      * Currently ongoing probe. Used to cancel+cleanup the current request when the {@link #cancel()} is called.
      * <p></p>
@@ -32,15 +71,24 @@ final class LiveUrlFinder {
      */
     private PingStrategy ongoingPing;
 
-    public LiveUrlFinder(FailoverReconnectConnector.StatusListener listener, int pingMillis, String pingImagePath) {
+    /**
+     * @param listener notified of the status, not null.
+     * @param config the configuration, not null.
+     * @param incident records the outcome of every probe, not null.
+     * @param arrivalReason tells the server we redirect to why the browser arrives, {@link #ARRIVAL_FAILOVER} or {@link #ARRIVAL_MIGRATION}.
+     */
+    public LiveUrlFinder(FailoverReconnectConnector.StatusListener listener, FailoverConfig config, FailoverIncident incident, String arrivalReason) {
+        this.arrivalReason = arrivalReason;
         this.listener = listener;
-        this.pingImagePath = pingImagePath;
+        this.config = config;
+        this.telemetryPath = config.telemetryPath;
+        this.incident = incident;
+        this.handoffToken = config.handoffToken;
         if (listener == null) {
             throw new IllegalArgumentException("Parameter listener: invalid value " + listener + ": must not be null");
         }
-        this.pingMillis = pingMillis;
-        if (pingMillis < 0) {
-            throw new IllegalArgumentException("Parameter pingMillis: invalid value " + pingMillis + ": must be 0 or greater");
+        if (config.pingMillis < 0) {
+            throw new IllegalArgumentException("Parameter pingMillis: invalid value " + config.pingMillis + ": must be 0 or greater");
         }
     }
 
@@ -79,28 +127,29 @@ final class LiveUrlFinder {
 
         // try to reconnect to the first URL from the list.
         final String url = remainingURLs.get(0);
-        Utils.jslog("Trying to ping server at " + url);
+        if (FailoverLog.isEnabled(LogLevel.INFO)) {
+            FailoverLog.info("Trying to ping server at " + url);
+        }
         listener.onStatus("Trying " + url);
 
         // We don't want to simply redirect the browser to the URL straight away - what if the fallback server is down as well?
         // First, ping the URL whether it is alive. If it is, only then do the browser redirect.
 
         // There are couple of options to use when trying to ping a server, see PingStrategy for details.
-        if (pingImagePath != null) {
-            ongoingPing = new PingStrategy.ImageStrategy(pingImagePath);
-        } else {
-            ongoingPing = new PingStrategy.AjaxStrategy();
-        }
+        ongoingPing = config.createPingStrategy(url);
 
-        ongoingPing.ping(url, pingMillis, new PingStrategy.Callback() {
+        final long pingStartedAt = System.currentTimeMillis();
+        ongoingPing.ping(config.getProbeUrl(url), config.getPingMillis(url), new PingStrategy.Callback() {
             @Override
             public void onSuccess() {
+                incident.onProbe(url, System.currentTimeMillis() - pingStartedAt, true);
                 listener.onStatus(url + " is up, redirecting");
                 redirectTo(url);
             }
 
             @Override
             public void onFailed() {
+                incident.onProbe(url, System.currentTimeMillis() - pingStartedAt, false);
                 // try next URL
                 final List<String> next = remainingURLs.subList(1, remainingURLs.size());
                 redirectToNextWorkingUrl(next);
@@ -109,9 +158,82 @@ final class LiveUrlFinder {
     }
 
     private void redirectTo(String url) {
+        if (telemetryPath != null) {
+            // the beacon survives the page unload; the server we're redirecting to aggregates the incident timings.
+            FailoverIncident.sendBeacon(url + telemetryPath, incident.toJson(url));
+        }
+        if (url.equals(HotStandby.get().getUrl())) {
+            HotStandby.get().adopt();
+        }
+        if (config.inPlaceReattach && isSameVersion(url)) {
+            if (InPlaceReattach.reattach(url, getArrivalParameters())) {
+                // the page stays; allow the next fail-over to start
+                FailoverProcess.get().onConnectionRestored();
+                return;
+            }
+        }
         // We do not want the user to be able to navigate back - if the server would come up alive and the user back-navigated to it,
         // the session in the new server would not be transferred back and thus is perceived as lost.
         // Thus, Use GWT replace instead of assign - replace modifies the history and thus the user is not able to navigate back to the old server.
-        Window.Location.replace(url);
+        Window.Location.replace(url + (url.contains("?") ? "&" : "?") + getArrivalParameters());
+    }
+
+    /**
+     * Checks whether the node at given URL runs the same application version as this page; only then the page can be re-attached in place.
+     * @param url the URL of the node, not null.
+     * @return true if both versions are the same, or if either of them is unknown.
+     */
+    private boolean isSameVersion(String url) {
+        final FailoverEndpoint target = config.getEndpoint(url);
+        final FailoverEndpoint current = config.getCurrentEndpoint();
+        if (target == null || current == null || target.version == null || current.version == null) {
+            return true;
+        }
+        if (!target.version.equals(current.version)) {
+            if (FailoverLog.isEnabled(LogLevel.INFO)) {
+                FailoverLog.info(url + " runs version " + target.version + " instead of " + current.version + ", reloading the page");
+            }
+            return false;
+        }
+        return true;
     }
+
+    /**
+     * @return the URL parameters which tell the server we redirect to why the browser arrives, who the user is and which telemetry
+     * record is theirs.
+     */
+    private String getArrivalParameters() {
+        final StringBuilder sb = new StringBuilder(ARRIVAL_PARAMETER).append('=').append(arrivalReason);
+        if (handoffToken != null) {
+            sb.append('&').append(HANDOFF_PARAMETER).append('=').append(URL.encodeQueryString(handoffToken));
+        }
+        if (telemetryPath != null) {
+            sb.append('&').append(INCIDENT_PARAMETER).append('=').append(incident.getId());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Removes the parameters added by {@link #getArrivalParameters()} (and the {@link InitialNodeSelector#SELECTED_PARAMETER}) from the
+     * address bar once the browser has arrived, so that a reload or a bookmark doesn't count as another arrival and doesn't carry
+     * the handoff token around.
+     */
+    static void removeArrivalParameters() {
+        removeUrlParameter(ARRIVAL_PARAMETER);
+        removeUrlParameter(HANDOFF_PARAMETER);
+        removeUrlParameter(INCIDENT_PARAMETER);
+        removeUrlParameter(InitialNodeSelector.SELECTED_PARAMETER);
+    }
+
+    private static native void removeUrlParameter(String parameter) /*-{
+        try {
+            var url = new $wnd.URL($wnd.location.href);
+            if (url.searchParams.has(parameter)) {
+                url.searchParams['delete'](parameter);
+                $wnd.history.replaceState($wnd.history.state, '', url.href);
+            }
+        } catch (e) {
+            // the URL or the history API is not available; the parameter stays in the address bar.
+        }
+    }-*/;
 }
@@ -0,0 +1,24 @@
+package com.vaadin.failover.client;
+
+/**
+ * The level of the client-side fail-over log messages, see {@link FailoverLog}. Ordered from the most verbose to the least verbose.
+ * @author mavi
+ */
+public enum LogLevel {
+    /**
+     * Per-probe details, including the full responses. Only useful when debugging the fail-over itself.
+     */
+    DEBUG,
+    /**
+     * The major steps of the fail-over process.
+     */
+    INFO,
+    /**
+     * Unexpected situations which the fail-over process recovered from.
+     */
+    WARN,
+    /**
+     * Disables the logging completely.
+     */
+    OFF
+}
@@ -44,6 +44,7 @@ public interface PingStrategy {
          * responding to a TCP-IP connection probe. It doesn't matter whether it replies with 404 or 200 or in any other way:
          * the only requirement is that a few bytes are sent as a response. It may be a SSH service for all we know.
          * This even includes a SSL handshake failure errors, since those indicate that there's something running.
+         * The only exception is 503 Service Unavailable, by which the server explicitly refuses the fail-over traffic.
          */
         void onSuccess();
 
@@ -65,6 +66,21 @@ public interface PingStrategy {
      * TODO mavi introduce a Servlet which properly configures CORS; maybe based on https://vaadin.com/blog/-/blogs/using-cors-with-vaadin
      */
     class AjaxStrategy implements PingStrategy {
+        /**
+         * Appended to the URL being pinged, may be null.
+         */
+        private final String path;
+
+        public AjaxStrategy() {
+            this(null);
+        }
+
+        /**
+         * @param path appended to the URL being pinged, may be null.
+         */
+        public AjaxStrategy(String path) {
+            this.path = path;
+        }
 
         /**
          * Currently ongoing probe. Used to cancel+cleanup the current request when the {@link #cancel()} is called.
@@ -89,7 +105,7 @@ public interface PingStrategy {
             // HEAD doesn't work either.
 //        final RequestBuilder builder = new RequestBuilder("HEAD", url) {};
 
-            final RequestBuilder builder = new RequestBuilder(RequestBuilder.GET, url);
+            final RequestBuilder builder = new RequestBuilder(RequestBuilder.GET, path == null ? url : url + path);
             builder.setCallback(new RequestCallback() {
                 @Override
                 public void onResponseReceived(Request request, Response response) {
@@ -97,7 +113,9 @@ public interface PingStrategy {
                         return;
                     }
                     ongoingRequest = null;
-                    Utils.jslog("Got response from " + url + ": " + response.getStatusCode() + " " + response.getStatusText() + ": " + response.getText() + ", headers=" + response.getHeadersAsString());
+                    if (FailoverLog.isDebugEnabled()) {
+                        FailoverLog.debug("Got response from " + url + ": " + response.getStatusCode() + " " + response.getStatusText() + ": " + response.getText() + ", headers=" + response.getHeadersAsString());
+                    }
                     if (response.getStatusCode() == 0) {
                         // Chrome reports all net:: issues like net::ERR_CONNECTION_REFUSED or net::ERR_NAME_NOT_RESOLVED like this.
                         // This usually means that the server is down and we'll have to try the next one.
@@ -106,7 +124,12 @@ public interface PingStrategy {
                         callback.onFailed();
                         return;
                     }
-                    // any proper kind of response (e.g. 401 unauthorized) means that the server is alive. Redirect.
+                    if (response.getStatusCode() == Response.SC_SERVICE_UNAVAILABLE) {
+                        // the server is alive but refuses the fail-over traffic, e.g. it is still warming up.
+                        callback.onFailed();
+                        return;
+                    }
+                    // any other proper kind of response (e.g. 401 unauthorized) means that the server is alive. Redirect.
                     callback.onSuccess();
                 }
 
@@ -116,7 +139,7 @@ public interface PingStrategy {
                         return;
                     }
                     ongoingRequest = null;
-                    Utils.jslog("Server failed to reply", exception);
+                    FailoverLog.warn("Server failed to reply", exception);
                     callback.onFailed();
                 }
             });
@@ -125,7 +148,7 @@ public interface PingStrategy {
             try {
                 ongoingRequest = builder.send();
             } catch (Exception e) {
-                Utils.jslog("Failed to ping server, redirecting blindly to " + url, e);
+                FailoverLog.warn("Failed to ping server, redirecting blindly to " + url, e);
                 callback.onSuccess();
             }
         }
@@ -172,7 +195,9 @@ public interface PingStrategy {
             // make sure that we don't get some cached image - pollute the cache by adding some random (or changing) number to the URL.
             // the ?forcenocache has no meaning really.
             final String imageUrl = url + pathToImage + "?forcenocache=" + System.currentTimeMillis();
-            Utils.jslog("Trying to download an image from " + imageUrl + " to verify whether the server is alive");
+            if (FailoverLog.isDebugEnabled()) {
+                FailoverLog.debug("Trying to download an image from " + imageUrl + " to verify whether the server is alive");
+            }
             image = GWT.create(Image.class);
             image.setVisible(false);
             // must be attached to the DOM tree otherwise GWT will not fire any events :(
@@ -181,12 +206,14 @@ public interface PingStrategy {
                 @Override
                 public void onLoad(LoadEvent event) {
                     if (image == null) {
-                        Utils.jslog("ONLOAD CANCELED");
+                        FailoverLog.debug("onLoad canceled");
                         // canceled
                         return;
                     }
                     timeout.cancel();
-                    Utils.jslog(url + " is live! " + event);
+                    if (FailoverLog.isDebugEnabled()) {
+                        FailoverLog.debug(url + " is live! " + event);
+                    }
                     callback.onSuccess();
                 }
             });
@@ -194,12 +221,14 @@ public interface PingStrategy {
                 @Override
                 public void onError(ErrorEvent event) {
                     if (image == null) {
-                        Utils.jslog("onError CANCELED");
+                        FailoverLog.debug("onError canceled");
                         // canceled
                         return;
                     }
                     cancel();
-                    Utils.jslog("Failed to obtain image from " + imageUrl + ": " + event);
+                    if (FailoverLog.isDebugEnabled()) {
+                        FailoverLog.debug("Failed to obtain image from " + imageUrl + ": " + event);
+                    }
                     callback.onFailed();
                 }
             });
@@ -207,7 +236,9 @@ public interface PingStrategy {
             timeout = new Timer() {
                 @Override
                 public void run() {
-                    Utils.jslog("Timeout obtaining image from " + imageUrl);
+                    if (FailoverLog.isDebugEnabled()) {
+                        FailoverLog.debug("Timeout obtaining image from " + imageUrl);
+                    }
                     cancel();
                     callback.onFailed();
                 }
@@ -226,4 +257,68 @@ public interface PingStrategy {
             }
         }
     }
+
+    /**
+     * Performs the probe in the {@link FailoverWorker}, so that the probe and its timeout are not throttled in background tabs.
+     * <h3>Prerequisites</h3>
+     * The same as for the {@link AjaxStrategy} when <code>cors</code> is true. When false, the probe can not see the response status:
+     * any response (including <code>503</code>) means that the server is alive.
+     */
+    class WorkerStrategy implements PingStrategy {
+        /**
+         * Appended to the URL being pinged, may be null.
+         */
+        private final String path;
+        private final boolean cors;
+        /**
+         * The ID of the ongoing probe, -1 if none.
+         */
+        private int ongoingId = -1;
+
+        /**
+         * @param path appended to the URL being pinged, may be null.
+         * @param cors if true, the probe is a CORS request and is able to detect <code>503 Service Unavailable</code>.
+         */
+        public WorkerStrategy(String path, boolean cors) {
+            this.path = path;
+            this.cors = cors;
+        }
+
+        @Override
+        public void ping(String url, int timeoutMillis, final Callback callback) {
+            if (ongoingId >= 0) {
+                throw new IllegalStateException("Invalid state: a ping is ongoing");
+            }
+            final FailoverWorker worker = FailoverWorker.get();
+            if (worker == null) {
+                throw new IllegalStateException("Invalid state: Web Worker is not available");
+            }
+            final String probeUrl = path == null ? url : url + path;
+            if (FailoverLog.isDebugEnabled()) {
+                FailoverLog.debug("Probing " + probeUrl + " in the Web Worker");
+            }
+            ongoingId = worker.ping(probeUrl, timeoutMillis, cors, new Callback() {
+                @Override
+                public void onSuccess() {
+                    ongoingId = -1;
+                    callback.onSuccess();
+                }
+
+                @Override
+                public void onFailed() {
+                    ongoingId = -1;
+                    callback.onFailed();
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            final FailoverWorker worker = FailoverWorker.get();
+            if (ongoingId >= 0 && worker != null) {
+                worker.cancel(ongoingId);
+            }
+            ongoingId = -1;
+        }
+    }
 }
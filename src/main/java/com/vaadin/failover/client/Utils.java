@@ -1,16 +1,24 @@
 package com.vaadin.failover.client;
 
-import com.google.gwt.core.client.GWT;
-
 /**
  * @author mavi
+ * @deprecated use {@link FailoverLog} instead, which honors the configured {@link LogLevel} and keeps the recent messages.
  */
+@Deprecated
 public class Utils {
+    /**
+     * @deprecated use {@link FailoverLog#warn(String, Throwable)}.
+     */
+    @Deprecated
     public static void jslog(String message, Throwable ex) {
-        GWT.log(message, ex);
-        jslog(message + ": " + ex);
+        FailoverLog.warn(message, ex);
+    }
+
+    /**
+     * @deprecated use {@link FailoverLog#info(String)}.
+     */
+    @Deprecated
+    public static void jslog(String message) {
+        FailoverLog.info(message);
     }
-    public static native void jslog(String message) /*-{
-        console.log(message);
-    }-*/;
 }
@@ -0,0 +1,87 @@
+package com.vaadin.failover;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mavi
+ */
+public class FailoverAdmissionTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void unlimitedByDefault() {
+        final FailoverAdmission admission = new FailoverAdmission();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(admission.tryAcquire());
+            admission.onSessionCreated();
+            admission.release();
+        }
+        assertEquals(0, admission.getRejected());
+    }
+
+    @Test
+    public void burstThenSustainedRate() {
+        final FailoverAdmission admission = new FailoverAdmission();
+        admission.configure(2, 3, 0);
+        final long now = System.nanoTime() + SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertTrue("session " + i, admission.hasToken(now));
+            admission.onSessionCreated(now);
+        }
+        assertFalse(admission.hasToken(now));
+        // one token per half a second
+        assertFalse(admission.hasToken(now + SECOND / 2 - 1));
+        assertTrue(admission.hasToken(now + SECOND / 2));
+        admission.onSessionCreated(now + SECOND / 2);
+        assertFalse(admission.hasToken(now + SECOND / 2));
+        // the bucket refills up to the burst, not more
+        final long later = now + 100 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(admission.hasToken(later));
+            admission.onSessionCreated(later);
+        }
+        assertFalse(admission.hasToken(later));
+    }
+
+    @Test
+    public void sessionLessRequestsAreNotCharged() {
+        final FailoverAdmission admission = new FailoverAdmission();
+        admission.configure(1, 1, 0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(admission.tryAcquire());
+            admission.release();
+        }
+        assertTrue(admission.hasCapacity());
+    }
+
+    @Test
+    public void overshootIsPaidBack() {
+        final FailoverAdmission admission = new FailoverAdmission();
+        admission.configure(1, 1, 0);
+        final long now = System.nanoTime() + SECOND;
+        // two concurrently admitted requests both created a session
+        admission.onSessionCreated(now);
+        admission.onSessionCreated(now);
+        assertFalse(admission.hasToken(now + SECOND));
+        assertTrue(admission.hasToken(now + 2 * SECOND));
+    }
+
+    @Test
+    public void maxConcurrent() {
+        final FailoverAdmission admission = new FailoverAdmission();
+        admission.configure(0, 1, 2);
+        assertTrue(admission.tryAcquire());
+        assertTrue(admission.tryAcquire());
+        assertFalse(admission.tryAcquire());
+        assertFalse(admission.hasCapacity());
+        assertEquals(1, admission.getRejected());
+        admission.release();
+        assertTrue(admission.tryAcquire());
+    }
+}
@@ -0,0 +1,37 @@
+package com.vaadin.failover;
+
+import com.vaadin.failover.client.FailoverEndpoint;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author mavi
+ */
+public class FailoverEndpointProberTest {
+    @Test
+    public void probesTheDefaultPath() {
+        final FailoverEndpoint endpoint = new FailoverEndpoint("http://node1:8080/app");
+        assertEquals("http://node1:8080/app/VAADIN/vaadinBootstrap.js",
+                FailoverEndpointProber.getProbeUrl(endpoint, FailoverEndpointProber.DEFAULT_PROBE_PATH, 0));
+    }
+
+    @Test
+    public void normalizesTheSlash() {
+        final FailoverEndpoint endpoint = new FailoverEndpoint("http://node1:8080/app/");
+        assertEquals("http://node1:8080/app/VAADIN/vaadinBootstrap.js",
+                FailoverEndpointProber.getProbeUrl(endpoint, FailoverEndpointProber.DEFAULT_PROBE_PATH, 0));
+        endpoint.probePath = "health";
+        assertEquals("http://node1:8080/app/health", FailoverEndpointProber.getProbeUrl(endpoint, "/", 0));
+    }
+
+    @Test
+    public void probesTheHealthPortLikeTheBrowser() {
+        final FailoverEndpoint endpoint = new FailoverEndpoint("http://node1:8080/app");
+        assertEquals("http://node1:8081/VAADIN/vaadinBootstrap.js",
+                FailoverEndpointProber.getProbeUrl(endpoint, FailoverEndpointProber.DEFAULT_PROBE_PATH, 8081));
+        final FailoverEndpoint ipv6 = new FailoverEndpoint("http://[::1]:8080/app");
+        ipv6.probePath = "/ping";
+        assertEquals("http://[::1]:8081/ping", FailoverEndpointProber.getProbeUrl(ipv6, "/", 8081));
+    }
+}
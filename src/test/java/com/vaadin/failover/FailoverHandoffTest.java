@@ -0,0 +1,106 @@
+package com.vaadin.failover;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author mavi
+ */
+public class FailoverHandoffTest {
+    private static final byte[] KEY = "0123456789abcdef".getBytes();
+    private final FailoverHandoff handoff = new FailoverHandoff(KEY, 60000);
+
+    @Test
+    public void roundTrip() {
+        final Map<String, String> params = new LinkedHashMap<>();
+        params.put("tab", "2");
+        final HandoffState state = new HandoffState("john", "orders/15", params);
+        final HandoffState decoded = handoff.decode(handoff.encode(state));
+        assertNotNull(decoded);
+        assertEquals("john", decoded.getIdentity());
+        assertEquals("orders/15", decoded.getRoute());
+        assertEquals(params, decoded.getParameters());
+        assertEquals(state.getIssuedAt(), decoded.getIssuedAt());
+    }
+
+    @Test
+    public void nullsSurvive() {
+        final HandoffState decoded = handoff.decode(handoff.encode(new HandoffState(null, null, Collections.<String, String>emptyMap())));
+        assertNotNull(decoded);
+        assertNull(decoded.getIdentity());
+        assertNull(decoded.getRoute());
+    }
+
+    @Test
+    public void tokenIsSingleUse() {
+        final String token = handoff.encode(new HandoffState("john", null, Collections.<String, String>emptyMap()));
+        assertNotNull(handoff.decode(token));
+        assertNull(handoff.decode(token));
+        // a fresh token of the same state is fine
+        assertNotNull(handoff.decode(handoff.encode(new HandoffState("john", null, Collections.<String, String>emptyMap()))));
+    }
+
+    @Test
+    public void expiredTokenRejected() {
+        final HandoffState old = new HandoffState("john", null, Collections.<String, String>emptyMap(), System.currentTimeMillis() - 61000);
+        assertNull(handoff.decode(handoff.encode(old)));
+    }
+
+    @Test
+    public void futureTokenRejected() {
+        final long future = System.currentTimeMillis() + FailoverHandoff.CLOCK_SKEW_MILLIS + 10000;
+        assertNull(handoff.decode(handoff.encode(new HandoffState("john", null, Collections.<String, String>emptyMap(), future))));
+        // a small clock skew is tolerated
+        final long skewed = System.currentTimeMillis() + FailoverHandoff.CLOCK_SKEW_MILLIS / 2;
+        assertNotNull(handoff.decode(handoff.encode(new HandoffState("john", null, Collections.<String, String>emptyMap(), skewed))));
+    }
+
+    @Test
+    public void tamperedTokenRejected() {
+        final String token = handoff.encode(new HandoffState("john", null, Collections.<String, String>emptyMap()));
+        final byte[] bytes = Base64Codec.decode(token);
+        for (int i = 0; i < bytes.length; i += 7) {
+            final byte[] tampered = bytes.clone();
+            tampered[i] ^= 1;
+            assertNull("byte " + i, handoff.decode(Base64Codec.encodeUrlSafe(tampered)));
+        }
+        assertNull(handoff.decode(token.substring(0, token.length() - 4)));
+        assertNull(handoff.decode("garbage!"));
+        assertNull(handoff.decode(""));
+        assertNull(handoff.decode(null));
+    }
+
+    @Test
+    public void otherKeyRejected() {
+        final String token = handoff.encode(new HandoffState("john", null, Collections.<String, String>emptyMap()));
+        assertNull(new FailoverHandoff("fedcba9876543210".getBytes(), 60000).decode(token));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidKeyLength() {
+        new FailoverHandoff(new byte[10], 60000);
+    }
+
+    @Test
+    public void base64() {
+        for (int length = 0; length < 10; length++) {
+            final byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (i * 97 + 250);
+            }
+            final String encoded = Base64Codec.encodeUrlSafe(bytes);
+            assertArrayEquals(bytes, Base64Codec.decode(encoded));
+        }
+        assertEquals("-_8", Base64Codec.encodeUrlSafe(new byte[]{(byte) 0xfb, (byte) 0xff}));
+        assertArrayEquals("hello".getBytes(), Base64Codec.decode("aGVsbG8="));
+        assertArrayEquals(new byte[]{(byte) 0xfb, (byte) 0xff}, Base64Codec.decode("+/8="));
+    }
+}
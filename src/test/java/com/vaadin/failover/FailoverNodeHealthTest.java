@@ -0,0 +1,84 @@
+package com.vaadin.failover;
+
+import com.vaadin.failover.client.FailoverEndpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mavi
+ */
+public class FailoverNodeHealthTest {
+    private static final String NODE = "http://node1:8080/app";
+    private FailoverNodeHealth health;
+
+    @Before
+    public void setUp() {
+        health = new FailoverNodeHealth();
+        health.addNodes(Arrays.asList(new FailoverEndpoint(NODE), new FailoverEndpoint("http://node2:8080/app")));
+    }
+
+    @After
+    public void tearDown() {
+        health.shutdown();
+    }
+
+    @Test
+    public void countsHalveEveryHalfLife() {
+        final FailoverNodeHealth.Counts counts = new FailoverNodeHealth.Counts(8, 4, 1000);
+        final FailoverNodeHealth.Counts decayed = counts.decayTo(1000 + 60000, 60000);
+        assertEquals(4, decayed.ok, 1e-9);
+        assertEquals(2, decayed.failed, 1e-9);
+        assertEquals(61000, decayed.at);
+        assertEquals(1, counts.decayTo(1000 + 180000, 60000).ok, 1e-9);
+    }
+
+    @Test
+    public void countsDoNotDecayBackwards() {
+        final FailoverNodeHealth.Counts counts = new FailoverNodeHealth.Counts(8, 4, 1000);
+        assertEquals(8, counts.decayTo(500, 60000).ok, 0);
+    }
+
+    @Test
+    public void reportsDecayBeforeAdding() {
+        health.record(NODE, false, 0);
+        health.record(NODE, false, 60000);
+        final FailoverNodeHealth.Counts counts = health.getLocal(60000).get(NODE);
+        assertEquals(1.5, counts.failed, 1e-9);
+        assertEquals(0, counts.ok, 0);
+    }
+
+    @Test
+    public void unknownUrlsAreIgnored() {
+        health.record("http://evil/" + System.nanoTime(), false, 0);
+        health.record("http://node1:8080", false, 0);
+        assertEquals(Collections.<String>emptySet(), health.getLocal(0).keySet());
+    }
+
+    @Test
+    public void decayedCountsAreEvicted() {
+        health.record(NODE, true, 0);
+        health.evictDecayed(60000);
+        assertTrue(health.getLocal(60000).containsKey(NODE));
+        // 1 * 0.5^7 < 0.01
+        health.evictDecayed(7 * 60000);
+        assertFalse(health.getLocal(7 * 60000).containsKey(NODE));
+    }
+
+    @Test
+    public void nodeFoundDeadBecomesSuspect() {
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            health.record(NODE, false, now);
+        }
+        health.record("http://node2:8080/app", false, now);
+        assertEquals(Collections.singletonList(NODE), health.getSuspectUrls());
+    }
+}
@@ -0,0 +1,107 @@
+package com.vaadin.failover;
+
+import com.vaadin.failover.client.FailoverEndpoint;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mavi
+ */
+public class FailoverTelemetryTest {
+    private static final String NODE = "http://node1:8080/app";
+    private static final String ID = "0123456789abcdef0123456789abcdef";
+    private FailoverNodeHealth health;
+    private FailoverTelemetry telemetry;
+
+    @Before
+    public void setUp() {
+        health = new FailoverNodeHealth();
+        health.addNodes(Arrays.asList(new FailoverEndpoint(NODE), new FailoverEndpoint("http://node2:8080/app")));
+        telemetry = new FailoverTelemetry(health);
+    }
+
+    @After
+    public void tearDown() {
+        health.shutdown();
+    }
+
+    private static JsonObject record(String id, int failedProbes) {
+        final StringBuilder probes = new StringBuilder();
+        for (int i = 0; i < failedProbes; i++) {
+            probes.append(i == 0 ? "" : ",").append("{\"url\":\"" + NODE + "\",\"rtt\":100,\"ok\":false}");
+        }
+        return Json.parse("{\"v\":1,\"id\":\"" + id + "\",\"detectionToStartMillis\":0,\"startToRedirectMillis\":0,"
+                + "\"timeToRedirectMillis\":0,\"cycles\":1,\"probes\":[" + probes + "],\"probeCount\":1000,\"failedProbeCount\":1000}");
+    }
+
+    @Test
+    public void countsOnlyProbesPresentInRecord() {
+        telemetry.record(record(ID, 2), 0);
+        assertEquals(2, telemetry.getProbes());
+        assertEquals(2, telemetry.getFailedProbes());
+    }
+
+    @Test
+    public void recordWithoutArrivalIsNotPassedToHealth() {
+        telemetry.record(record(ID, 5), 0);
+        assertNull(health.getLocal(0).get(NODE));
+    }
+
+    @Test
+    public void arrivalConfirmsRecord() {
+        telemetry.record(record(ID, 5), 0);
+        telemetry.onArrival(ID, 1000);
+        assertEquals(1, health.getLocal(1000).get(NODE).failed, 1e-9);
+        // the record only counts once
+        telemetry.onArrival(ID, 1000);
+        telemetry.record(record(ID, 5), 1000);
+        assertEquals(1, health.getLocal(1000).get(NODE).failed, 1e-9);
+    }
+
+    @Test
+    public void recordAfterArrivalIsConfirmed() {
+        telemetry.onArrival(ID, 0);
+        telemetry.record(record(ID, 5), 1000);
+        assertEquals(1, health.getLocal(1000).get(NODE).failed, 1e-9);
+    }
+
+    @Test
+    public void pendingRecordsExpire() {
+        telemetry.record(record(ID, 1), 0);
+        telemetry.onArrival(ID, FailoverTelemetry.PENDING_MILLIS);
+        assertNull(health.getLocal(FailoverTelemetry.PENDING_MILLIS).get(NODE));
+    }
+
+    @Test
+    public void recordReportsAtMostMaxUrls() {
+        final StringBuilder probes = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            probes.append(i == 0 ? "" : ",").append("{\"url\":\"http://n" + i + "\",\"ok\":false}");
+        }
+        probes.append(",{\"url\":\"http://n0\",\"ok\":true}");
+        final JsonArray array = Json.instance().parse("[" + probes + "]");
+        final Map<String, Boolean> outcomes = FailoverTelemetry.getOutcomes(array);
+        assertEquals(FailoverTelemetry.MAX_HEALTH_URLS, outcomes.size());
+        // the last probe of the URL wins
+        assertTrue(outcomes.get("http://n0"));
+    }
+
+    @Test
+    public void incidentIdValidation() {
+        assertTrue(FailoverTelemetry.isValidIncidentId(ID));
+        assertFalse(FailoverTelemetry.isValidIncidentId("short"));
+        assertFalse(FailoverTelemetry.isValidIncidentId("0123456789abcdef<script>"));
+    }
+}
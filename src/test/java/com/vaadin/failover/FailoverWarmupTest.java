@@ -0,0 +1,46 @@
+package com.vaadin.failover;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mavi
+ */
+public class FailoverWarmupTest {
+    @After
+    public void tearDown() {
+        FailoverWarmup.get().setSecret(null);
+    }
+
+    @Test
+    public void noSecretRejectsEverything() {
+        FailoverWarmup.get().setSecret(null);
+        assertFalse(FailoverWarmup.get().isValidSecret(null));
+        assertFalse(FailoverWarmup.get().isValidSecret(""));
+        assertFalse(FailoverWarmup.get().isValidSecret("anything"));
+    }
+
+    @Test
+    public void secretMustMatch() {
+        FailoverWarmup.get().setSecret("s3cret");
+        assertTrue(FailoverWarmup.get().isValidSecret("s3cret"));
+        assertFalse(FailoverWarmup.get().isValidSecret("s3cre"));
+        assertFalse(FailoverWarmup.get().isValidSecret(null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void hintsAreNotSentWithoutSecret() {
+        FailoverWarmup.get().setSecret(null);
+        FailoverWarmup.get().notifyPeers(Collections.singletonList("http://peer:8080/ping.png"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptySecretRejected() {
+        FailoverWarmup.get().setSecret(" ");
+    }
+}
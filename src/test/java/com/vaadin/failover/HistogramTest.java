@@ -0,0 +1,84 @@
+package com.vaadin.failover;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mavi
+ */
+public class HistogramTest {
+    @Test
+    public void emptyHistogram() {
+        final Histogram h = new Histogram(10, 100);
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getSum());
+        assertEquals(0, h.getMean(), 0);
+        assertEquals(0, h.getPercentile(99));
+    }
+
+    @Test
+    public void valuesGoToBucketsByInclusiveUpperBound() {
+        final Histogram h = new Histogram(10, 100);
+        h.record(10);
+        h.record(11);
+        h.record(100);
+        h.record(101);
+        h.record(-5);
+        assertArrayEquals(new long[]{2, 2, 1}, h.getBucketCounts());
+        assertEquals(5, h.getCount());
+        assertEquals(10 + 11 + 100 + 101, h.getSum());
+    }
+
+    @Test
+    public void percentiles() {
+        final Histogram h = new Histogram(10, 100, 1000);
+        for (int i = 0; i < 90; i++) {
+            h.record(5);
+        }
+        for (int i = 0; i < 9; i++) {
+            h.record(50);
+        }
+        h.record(5000);
+        assertEquals(10, h.getPercentile(50));
+        assertEquals(10, h.getPercentile(90));
+        assertEquals(100, h.getPercentile(99));
+        assertEquals(Long.MAX_VALUE, h.getPercentile(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsortedBoundsRejected() {
+        new Histogram(100, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPercentileRejected() {
+        new Histogram(10).getPercentile(101);
+    }
+
+    @Test
+    public void reset() {
+        final Histogram h = new Histogram(10);
+        h.record(5);
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertArrayEquals(new long[]{0, 0}, h.getBucketCounts());
+    }
+
+    @Test
+    public void prometheusBucketsAreCumulative() {
+        final Histogram h = new Histogram(10, 100);
+        h.record(5);
+        h.record(50);
+        h.record(500);
+        final StringBuilder sb = new StringBuilder();
+        h.writeTo(sb, "m");
+        final String text = sb.toString();
+        assertTrue(text, text.contains("m_bucket{le=\"10\"} 1\n"));
+        assertTrue(text, text.contains("m_bucket{le=\"100\"} 2\n"));
+        assertTrue(text, text.contains("m_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("m_count 3\n"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.vaadin.failover;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author mavi
+ */
+public class RateCounterTest {
+    @Test
+    public void currentSecondIsNotCounted() {
+        final RateCounter counter = new RateCounter();
+        counter.record(10500);
+        counter.record(10900);
+        assertEquals(0, counter.getCount(5, 10999));
+        assertEquals(2, counter.getCount(5, 11000));
+    }
+
+    @Test
+    public void eventsLeaveTheWindow() {
+        final RateCounter counter = new RateCounter();
+        counter.record(10000);
+        counter.record(12000);
+        counter.record(12001);
+        assertEquals(3, counter.getCount(5, 13000));
+        assertEquals(2, counter.getCount(1, 13000));
+        assertEquals(3, counter.getCount(5, 15999));
+        assertEquals(2, counter.getCount(5, 16000));
+        assertEquals(2, counter.getCount(5, 17999));
+        assertEquals(0, counter.getCount(5, 18000));
+    }
+
+    @Test
+    public void bucketsAreReusedAfterWrapAround() {
+        final RateCounter counter = new RateCounter();
+        counter.record(1000);
+        counter.record(1000);
+        // the same bucket, one full ring later
+        final long later = 1000 + (RateCounter.MAX_WINDOW_SECONDS + 1) * 1000L;
+        counter.record(later);
+        assertEquals(1, counter.getCount(RateCounter.MAX_WINDOW_SECONDS, later + 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowTooLong() {
+        new RateCounter().getCount(RateCounter.MAX_WINDOW_SECONDS + 1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowTooShort() {
+        new RateCounter().getCount(0, 0);
+    }
+}
@@ -0,0 +1,68 @@
+package com.vaadin.failover.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mavi
+ */
+public class FailoverProcessTest {
+    private static FailoverEndpoint endpoint(String url, int weight) {
+        final FailoverEndpoint endpoint = new FailoverEndpoint(url);
+        endpoint.weight = weight;
+        return endpoint;
+    }
+
+    @Test
+    public void heavierNodeComesFirstMoreOften() {
+        final FailoverEndpoint heavy = endpoint("http://heavy", 3);
+        final FailoverEndpoint light = endpoint("http://light", 1);
+        final Random random = new Random(42);
+        int heavyFirst = 0;
+        final int rounds = 20000;
+        for (int i = 0; i < rounds; i++) {
+            final List<FailoverEndpoint> endpoints = new ArrayList<>(Arrays.asList(light, heavy));
+            FailoverProcess.shuffle(endpoints, random);
+            if (endpoints.get(0) == heavy) {
+                heavyFirst++;
+            }
+        }
+        // P(heavy first) = w1 / (w1 + w2) = 0.75
+        assertEquals(0.75, ((double) heavyFirst) / rounds, 0.02);
+    }
+
+    @Test
+    public void zeroWeightComesLast() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final FailoverEndpoint drained = endpoint("http://drained", 0);
+            final List<FailoverEndpoint> endpoints = new ArrayList<>(Arrays.asList(drained, endpoint("http://a", 1), endpoint("http://b", 100)));
+            FailoverProcess.shuffle(endpoints, random);
+            assertEquals(3, endpoints.size());
+            assertTrue(endpoints.get(2) == drained);
+        }
+    }
+
+    @Test
+    public void equalWeightsAreUniform() {
+        final Random random = new Random(7);
+        final FailoverEndpoint a = endpoint("http://a", 1);
+        final FailoverEndpoint b = endpoint("http://b", 1);
+        int aFirst = 0;
+        for (int i = 0; i < 20000; i++) {
+            final List<FailoverEndpoint> endpoints = new ArrayList<>(Arrays.asList(a, b));
+            FailoverProcess.shuffle(endpoints, random);
+            if (endpoints.get(0) == a) {
+                aFirst++;
+            }
+        }
+        assertEquals(0.5, aFirst / 20000d, 0.02);
+    }
+}